@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+/**
+ * Burrows-Wheeler transform of a block. The output is the last column of the
+ * sorted rotations of the block followed by an end marker, which groups
+ * bytes that come before similar text together. The suffix array that sorts
+ * the rotations is built with SA-IS (Nong, Zhang and Chan), which takes time
+ * linear in the block size.
+ * <p>
+ * The end marker itself is not stored. Instead the first 4 bytes of the
+ * output hold the row it was in, so the output is 4 bytes longer than the input.
+ */
+public class BurrowsWheelerTransform implements IByteTransform {
+    static final int INDEX_BYTES = 4;
+    private static final int NUM_VALUES = 256;
+
+    public byte[] forward(byte[] data, int length) {
+        // shift every byte up by one so 0 can be the unique, smallest sentinel
+        int n = length + 1;
+        int[] s = new int[n];
+        for (int i = 0; i < length; i++) {
+            s[i] = (data[i] & 0xff) + 1;
+        }
+        int[] sa = new int[n];
+        suffixArray(s, sa, n, NUM_VALUES + 1);
+        byte[] result = new byte[INDEX_BYTES + length];
+        int primary = 0;
+        int pos = INDEX_BYTES;
+        for (int i = 0; i < n; i++) {
+            if (sa[i] == 0) {
+                primary = i;
+            } else {
+                result[pos++] = data[sa[i] - 1];
+            }
+        }
+        for (int i = 0; i < INDEX_BYTES; i++) {
+            result[i] = (byte) (primary >>> (8 * (INDEX_BYTES - 1 - i)));
+        }
+        return result;
+    }
+
+    public byte[] inverse(byte[] data, int length) {
+        if (length < INDEX_BYTES) {
+            throw new IllegalArgumentException("block too short for a Burrows-Wheeler transform");
+        }
+        int primary = 0;
+        for (int i = 0; i < INDEX_BYTES; i++) {
+            primary = (primary << 8) | (data[i] & 0xff);
+        }
+        int n = length - INDEX_BYTES;
+        if (primary < 0 || primary > n) {
+            throw new IllegalArgumentException("invalid Burrows-Wheeler index " + primary);
+        }
+        // first[c] is the first row starting with c, after the sentinel row
+        int[] first = new int[NUM_VALUES];
+        for (int i = INDEX_BYTES; i < length; i++) {
+            first[data[i] & 0xff]++;
+        }
+        int row = 1;
+        for (int c = 0; c < NUM_VALUES; c++) {
+            int count = first[c];
+            first[c] = row;
+            row += count;
+        }
+        // next[i] is the row the rotation in row i moves to after one step back
+        int[] next = new int[n + 1];
+        for (int i = 0; i <= n; i++) {
+            if (i != primary) {
+                int c = data[INDEX_BYTES + (i < primary ? i : i - 1)] & 0xff;
+                next[i] = first[c]++;
+            }
+        }
+        byte[] result = new byte[n];
+        row = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = data[INDEX_BYTES + (row < primary ? row : row - 1)];
+            row = next[row];
+        }
+        return result;
+    }
+
+    /**
+     * Builds the suffix array of s with SA-IS. s[n - 1] must be 0 and every
+     * other value must be from 1 to k - 1.
+     *
+     * @param s  the string
+     * @param sa where the suffix array is stored
+     * @param n  the length of s
+     * @param k  the size of the alphabet of s
+     */
+    static void suffixArray(int[] s, int[] sa, int n, int k) {
+        if (n == 1) {
+            sa[0] = 0;
+            return;
+        }
+        // type[i] is true if suffix i is S-type (smaller than suffix i + 1)
+        boolean[] type = new boolean[n];
+        type[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--) {
+            type[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && type[i + 1]);
+        }
+        int[] buckets = new int[k];
+
+        // sort the LMS substrings by inducing from their unsorted positions
+        Arrays.fill(sa, 0, n, -1);
+        bucketEnds(s, n, buckets, k);
+        for (int i = 1; i < n; i++) {
+            if (isLMS(type, i)) {
+                sa[--buckets[s[i]]] = i;
+            }
+        }
+        induce(s, sa, n, type, buckets, k);
+
+        // name the sorted LMS substrings, equal substrings get equal names
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLMS(type, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        int previous = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = sa[i];
+            boolean differ = false;
+            for (int d = 0; d < n; d++) {
+                if (previous == -1 || s[pos + d] != s[previous + d]
+                        || type[pos + d] != type[previous + d]) {
+                    differ = true;
+                    break;
+                } else if (d > 0 && (isLMS(type, pos + d) || isLMS(type, previous + d))) {
+                    break;
+                }
+            }
+            if (differ) {
+                name++;
+                previous = pos;
+            }
+            // LMS positions are at least 2 apart, so pos / 2 is unique
+            sa[n1 + pos / 2] = name - 1;
+        }
+        int[] s1 = new int[n1];
+        for (int i = n - 1, j = n1 - 1; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                s1[j--] = sa[i];
+            }
+        }
+
+        // sort the LMS suffixes, recursing if two substrings had the same name
+        int[] sa1 = new int[n1];
+        if (name < n1) {
+            suffixArray(s1, sa1, n1, name);
+        } else {
+            for (int i = 0; i < n1; i++) {
+                sa1[s1[i]] = i;
+            }
+        }
+
+        // induce the whole suffix array from the sorted LMS suffixes
+        for (int i = 1, j = 0; i < n; i++) {
+            if (isLMS(type, i)) {
+                s1[j++] = i;
+            }
+        }
+        Arrays.fill(sa, 0, n, -1);
+        bucketEnds(s, n, buckets, k);
+        for (int i = n1 - 1; i >= 0; i--) {
+            int pos = s1[sa1[i]];
+            sa[--buckets[s[pos]]] = pos;
+        }
+        induce(s, sa, n, type, buckets, k);
+    }
+
+    // Induce the L-type suffixes left to right, then the S-type right to left.
+    private static void induce(int[] s, int[] sa, int n, boolean[] type, int[] buckets, int k) {
+        bucketStarts(s, n, buckets, k);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !type[j]) {
+                sa[buckets[s[j]]++] = j;
+            }
+        }
+        bucketEnds(s, n, buckets, k);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && type[j]) {
+                sa[--buckets[s[j]]] = j;
+            }
+        }
+    }
+
+    private static boolean isLMS(boolean[] type, int i) {
+        return i > 0 && type[i] && !type[i - 1];
+    }
+
+    private static void bucketStarts(int[] s, int n, int[] buckets, int k) {
+        countValues(s, n, buckets, k);
+        int sum = 0;
+        for (int c = 0; c < k; c++) {
+            sum += buckets[c];
+            buckets[c] = sum - buckets[c];
+        }
+    }
+
+    private static void bucketEnds(int[] s, int n, int[] buckets, int k) {
+        countValues(s, n, buckets, k);
+        int sum = 0;
+        for (int c = 0; c < k; c++) {
+            sum += buckets[c];
+            buckets[c] = sum;
+        }
+    }
+
+    private static void countValues(int[] s, int n, int[] buckets, int k) {
+        Arrays.fill(buckets, 0, k, 0);
+        for (int i = 0; i < n; i++) {
+            buckets[s[i]]++;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Takes the CRC32C of the bytes read through it. Bytes read one at a time
+ * are kept and added to the checksum in blocks, since CRC32C is only fast
+ * on many bytes at once.
+ */
+public class ChecksumInputStream extends FilterInputStream {
+    private static final int BLOCK_SIZE = 1 << 13;
+
+    private final CRC32C checksum = new CRC32C();
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+
+    /**
+     * Create a stream that checksums the data read from in.
+     * @param in the data
+     */
+    public ChecksumInputStream(InputStream in) {
+        super(in);
+    }
+
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            if (length == block.length) {
+                update();
+            }
+            block[length++] = (byte) b;
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            update();
+            checksum.update(b, off, n);
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        // skipped bytes must still be checksummed
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Get the CRC32C of all the bytes read so far.
+     * @return the checksum, in the low 32 bits
+     */
+    public long getValue() {
+        update();
+        return checksum.getValue();
+    }
+
+    // Adds the bytes kept from read() to the checksum.
+    private void update() {
+        checksum.update(block, 0, length);
+        length = 0;
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Takes the CRC32C of the bytes written through it. Bytes written one at a
+ * time are kept and added to the checksum in blocks, since CRC32C is only
+ * fast on many bytes at once.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+    private static final int BLOCK_SIZE = 1 << 13;
+
+    private final CRC32C checksum = new CRC32C();
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+
+    /**
+     * Create a stream that checksums the data written to out.
+     * @param out where the data goes
+     */
+    public ChecksumOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (length == block.length) {
+            update();
+        }
+        block[length++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        update();
+        checksum.update(b, off, len);
+    }
+
+    /**
+     * Get the CRC32C of all the bytes written so far.
+     * @return the checksum, in the low 32 bits
+     */
+    public long getValue() {
+        update();
+        return checksum.getValue();
+    }
+
+    // Adds the bytes kept from write(int) to the checksum.
+    private void update() {
+        checksum.update(block, 0, length);
+        length = 0;
+    }
+}
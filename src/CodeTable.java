@@ -0,0 +1,507 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A prefix code over an alphabet of int symbols, stored as flat arrays so it
+ * can be used for both encoding and decoding without Strings or Maps.
+ * lengths[s] and codes[s] hold the length and the bits of the code for symbol s,
+ * a length of 0 means s has no code. For decoding the codes are kept in a
+ * trie packed into an int array, two entries (the 0 and 1 child) per internal
+ * node. A child entry is either the index of another internal node or, if
+ * negative, ~symbol for a leaf. The trie for n symbols has n - 1 internal
+ * nodes, so even for 16 bit words it stays small enough to fit in cache.
+ * <p>
+ * A table can come from a HuffmanTree (the Standard Count and Standard Tree
+ * formats, where the shape of the tree is fixed by the format) or be built
+ * as a canonical code from frequencies, in which case only the code lengths
+ * need to be stored in a header.
+ */
+public class CodeTable implements IHuffConstants {
+
+    /**
+     * The longest code a canonical table will assign. Lengths are stored in
+     * LENGTH_BITS bits in the header.
+     */
+    public static final int MAX_CODE_LENGTH = 31;
+
+    static final int LENGTH_BITS = 5;
+
+    private int alphabetSize;
+    private int[] lengths;
+    private long[] codes;
+    private int[] trie;
+    private int numSymbols;
+    private int maxLength;
+    private long[] work;
+    private final long[] nextCode = new long[MAX_CODE_LENGTH + 2];
+
+    /**
+     * Creates an empty table for symbols 0 to alphabetSize - 1. Use
+     * buildCanonical or readHeader to fill it in.
+     *
+     * @param alphabetSize the number of possible symbols
+     */
+    public CodeTable(int alphabetSize) {
+        if (alphabetSize < 1) {
+            throw new IllegalArgumentException("alphabetSize must be positive");
+        }
+        this.alphabetSize = alphabetSize;
+        lengths = new int[alphabetSize];
+        codes = new long[alphabetSize];
+        trie = new int[2];
+    }
+
+    /**
+     * Creates a table from an explicit prefix code, such as the paths in a
+     * HuffmanTree.
+     *
+     * @param lengths lengths[s] is the number of bits in the code for s, 0 if s
+     *                has no code
+     * @param codes   codes[s] holds the code for s in its rightmost lengths[s]
+     *                bits
+     */
+    public CodeTable(int[] lengths, long[] codes) {
+        this(lengths.length);
+        System.arraycopy(lengths, 0, this.lengths, 0, alphabetSize);
+        System.arraycopy(codes, 0, this.codes, 0, alphabetSize);
+        buildTrie();
+    }
+
+    /**
+     * Makes a table with the same code as this one, which is not changed
+     * when this table is built again.
+     *
+     * @return the copy
+     */
+    public CodeTable copy() {
+        return new CodeTable(lengths, codes);
+    }
+
+    /**
+     * Replaces the code in this table with a canonical Huffman code for the
+     * given frequencies. No code is longer than MAX_CODE_LENGTH bits. Symbols
+     * with a frequency of 0 get no code.
+     *
+     * @param freqs freqs[s] is the frequency of symbol s, freqs.length must be
+     *              at least the alphabet size of this table
+     */
+    public void buildCanonical(int[] freqs) {
+        if (work == null) {
+            work = new long[6 * alphabetSize];
+        }
+        buildCanonical(freqs, work);
+    }
+
+    /**
+     * Same as buildCanonical(freqs) but uses a scratch array owned by the
+     * caller, so many tables can be built without allocating.
+     *
+     * @param freqs freqs[s] is the frequency of symbol s
+     * @param work  scratch space, at least 6 * alphabet size long values
+     */
+    public void buildCanonical(int[] freqs, long[] work) {
+        computeLengths(freqs, alphabetSize, MAX_CODE_LENGTH, lengths, work);
+        assignCanonicalCodes();
+        buildTrie();
+    }
+
+    /**
+     * Replaces the code in this table with the canonical code for the given
+     * code lengths, such as those read from a header.
+     *
+     * @param lengths lengths[s] is the number of bits in the code for s, 0 if s
+     *                has no code, for every symbol of the alphabet
+     * @throws IllegalArgumentException if the lengths do not form a prefix code
+     */
+    public void setLengths(int[] lengths) {
+        System.arraycopy(lengths, 0, this.lengths, 0, alphabetSize);
+        assignCanonicalCodes();
+        buildTrie();
+    }
+
+    /**
+     * Computes Huffman code lengths for freqs[0] to freqs[n - 1] into
+     * lengths, limited to maxLength bits. If the limit is exceeded the
+     * frequencies are halved (keeping every used symbol at least 1) and the
+     * lengths are computed again.
+     *
+     * @param freqs     the frequencies of the symbols
+     * @param n         the number of symbols
+     * @param maxLength the longest allowed code
+     * @param lengths   where the lengths are stored
+     * @param work      scratch space, at least 6 * n long values
+     */
+    static void computeLengths(int[] freqs, int n, int maxLength, int[] lengths, long[] work) {
+        // leaves are renumbered 0 to used - 1, remember which symbol each one is
+        int symbols = 5 * n;
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            lengths[i] = 0;
+            if (freqs[i] > 0) {
+                work[symbols + used] = i;
+                work[used] = freqs[i];
+                used++;
+            }
+        }
+        if (used == 1) {
+            lengths[(int) work[symbols]] = 1;
+        } else if (used > 1) {
+            while (huffmanDepths(work, used, n) > maxLength) {
+                for (int i = 0; i < used; i++) {
+                    work[i] = (work[i] + 1) >> 1;
+                }
+            }
+            int depths = 2 * n;
+            for (int i = 0; i < used; i++) {
+                lengths[(int) work[symbols + i]] = (int) work[depths + i];
+            }
+        }
+    }
+
+    /*
+     * Runs the Huffman algorithm on the leaf weights in work[0] to
+     * work[used - 1]. Internal nodes are numbered used to 2 * used - 2 and their
+     * weights follow the leaves, so a parent always has a larger index than its
+     * children. The parent links start at work[2n] and are then replaced by
+     * the depth of each node. The heap of node indices starts at work[4n].
+     * Returns the greatest depth of a leaf.
+     */
+    private static int huffmanDepths(long[] work, int used, int n) {
+        int parents = 2 * n;
+        int heap = 4 * n;
+        int size = 0;
+        for (int i = 0; i < used; i++) {
+            size = heapPush(work, heap, size, i);
+        }
+        int next = used;
+        while (size > 1) {
+            int first = (int) work[heap];
+            size = heapPop(work, heap, size);
+            int second = (int) work[heap];
+            size = heapPop(work, heap, size);
+            work[next] = work[first] + work[second];
+            work[parents + first] = next;
+            work[parents + second] = next;
+            size = heapPush(work, heap, size, next);
+            next++;
+        }
+        int root = next - 1;
+        work[parents + root] = 0;
+        int longest = 0;
+        for (int i = root - 1; i >= 0; i--) {
+            long depth = work[parents + (int) work[parents + i]] + 1;
+            work[parents + i] = depth;
+            if (i < used && depth > longest) {
+                longest = (int) depth;
+            }
+        }
+        return longest;
+    }
+
+    // Add node to the min-heap of node indices ordered by weight.
+    private static int heapPush(long[] work, int heap, int size, int node) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            int above = (int) work[heap + parent];
+            if (work[above] <= work[node]) {
+                break;
+            }
+            work[heap + i] = above;
+            i = parent;
+        }
+        work[heap + i] = node;
+        return size + 1;
+    }
+
+    // Remove the lightest node, which is at the top of the heap.
+    private static int heapPop(long[] work, int heap, int size) {
+        size--;
+        int last = (int) work[heap + size];
+        int i = 0;
+        int child = 1;
+        while (child < size) {
+            int smaller = (int) work[heap + child];
+            if (child + 1 < size && work[(int) work[heap + child + 1]] < work[smaller]) {
+                child++;
+                smaller = (int) work[heap + child];
+            }
+            if (work[last] <= work[smaller]) {
+                break;
+            }
+            work[heap + i] = smaller;
+            i = child;
+            child = 2 * i + 1;
+        }
+        work[heap + i] = last;
+        return size;
+    }
+
+    /*
+     * Give every symbol with a length the next code of that length, taking
+     * symbols in increasing order. This is the canonical code used by deflate,
+     * it only depends on the lengths.
+     */
+    private void assignCanonicalCodes() {
+        Arrays.fill(nextCode, 0);
+        for (int s = 0; s < alphabetSize; s++) {
+            nextCode[lengths[s]]++;
+        }
+        nextCode[0] = 0;
+        long code = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH + 1; len++) {
+            long count = nextCode[len];
+            nextCode[len] = code;
+            code = (code + count) << 1;
+        }
+        for (int s = 0; s < alphabetSize; s++) {
+            int len = lengths[s];
+            if (len > 0) {
+                codes[s] = nextCode[len]++;
+                if (codes[s] >= 1L << len) {
+                    throw new IllegalArgumentException("code lengths do not form a prefix code");
+                }
+            }
+        }
+    }
+
+    /*
+     * Rebuild the decoding trie from lengths and codes, and recount
+     * numSymbols and maxLength.
+     */
+    private void buildTrie() {
+        numSymbols = 0;
+        maxLength = 0;
+        for (int s = 0; s < alphabetSize; s++) {
+            if (lengths[s] > 0) {
+                numSymbols++;
+                maxLength = Math.max(maxLength, lengths[s]);
+            }
+        }
+        int needed = 2 * Math.max(numSymbols - 1, 1);
+        if (trie.length < needed) {
+            trie = new int[needed];
+        } else {
+            Arrays.fill(trie, 0);
+        }
+        int nodes = 1;
+        for (int s = 0; s < alphabetSize; s++) {
+            int node = 0;
+            for (int bit = lengths[s] - 1; bit >= 0; bit--) {
+                int index = 2 * node + (int) ((codes[s] >>> bit) & 1);
+                if (trie[index] < 0) {
+                    throw new IllegalArgumentException("codes do not form a prefix code");
+                }
+                if (bit == 0) {
+                    if (trie[index] != 0) {
+                        throw new IllegalArgumentException("codes do not form a prefix code");
+                    }
+                    trie[index] = ~s;
+                } else {
+                    if (trie[index] == 0) {
+                        if (2 * nodes + 2 > trie.length) {
+                            // only codes with unused bit patterns need more nodes
+                            trie = Arrays.copyOf(trie, 2 * trie.length + 2);
+                        }
+                        trie[index] = nodes++;
+                    }
+                    node = trie[index];
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the code for symbol to out.
+     *
+     * @param out    the stream to write to
+     * @param symbol the symbol to encode
+     * @return the number of bits written
+     */
+    public int write(BitOutputStream out, int symbol) {
+        int len = lengths[symbol];
+        if (len == 0) {
+            throw new IllegalArgumentException("no code for symbol " + symbol);
+        }
+        if (len > BITS_PER_INT) {
+            out.writeBits(len - BITS_PER_INT, (int) (codes[symbol] >>> BITS_PER_INT));
+            out.writeBits(BITS_PER_INT, (int) codes[symbol]);
+        } else {
+            out.writeBits(len, (int) codes[symbol]);
+        }
+        return len;
+    }
+
+    /**
+     * Reads one code from in and returns its symbol.
+     *
+     * @param in the stream to read from
+     * @return the symbol read, or -1 if in ran out of bits
+     * @throws IOException if the bits read are not a code in this table
+     */
+    public int read(BitInputStream in) throws IOException {
+        int node = 0;
+        while (true) {
+            int bit = in.readBits(1);
+            if (bit < 0) {
+                return -1;
+            }
+            int next = trie[2 * node + bit];
+            if (next < 0) {
+                return ~next;
+            } else if (next == 0) {
+                throw new IOException("Invalid code in compressed data.");
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * Get a child entry of the decoding trie, for decoders that take their
+     * bits from somewhere other than a BitInputStream. Decoding starts at
+     * node 0.
+     *
+     * @param node the internal node the last bits led to
+     * @param bit  the next bit
+     * @return the next internal node, ~symbol if a code ends here, or 0 if
+     *         no code starts with these bits
+     */
+    int child(int node, int bit) {
+        return trie[2 * node + bit];
+    }
+
+    /**
+     * Writes the code lengths of this table: the number of symbols with a
+     * code, then each of those symbols in increasing order followed by its
+     * code length. Only valid for canonical tables.
+     *
+     * @param out the stream to write to
+     * @return the number of bits written
+     */
+    public int writeHeader(BitOutputStream out) {
+        int countBits = bitsFor(alphabetSize);
+        int symbolBits = bitsFor(alphabetSize - 1);
+        out.writeBits(countBits, numSymbols);
+        for (int s = 0; s < alphabetSize; s++) {
+            if (lengths[s] > 0) {
+                out.writeBits(symbolBits, s);
+                out.writeBits(LENGTH_BITS, lengths[s]);
+            }
+        }
+        return getHeaderSize();
+    }
+
+    /**
+     * Replaces the code in this table with the canonical code whose lengths
+     * are read from in, as written by writeHeader.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the header is truncated or not a valid code
+     */
+    public void readHeader(BitInputStream in) throws IOException {
+        Arrays.fill(lengths, 0);
+        int count = in.readBits(bitsFor(alphabetSize));
+        if (count < 0 || count > alphabetSize) {
+            throw new IOException("Invalid code table header.");
+        }
+        int symbolBits = bitsFor(alphabetSize - 1);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int s = in.readBits(symbolBits);
+            int len = in.readBits(LENGTH_BITS);
+            if (s <= previous || s >= alphabetSize || len <= 0) {
+                throw new IOException("Invalid code table header.");
+            }
+            lengths[s] = len;
+            previous = s;
+        }
+        try {
+            assignCanonicalCodes();
+            buildTrie();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid code table header. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the number of bits writeHeader writes for this table.
+     *
+     * @return the size of the header in bits
+     */
+    public int getHeaderSize() {
+        return bitsFor(alphabetSize) + numSymbols * (bitsFor(alphabetSize - 1) + LENGTH_BITS);
+    }
+
+    /**
+     * Get the number of bits needed to encode the given frequencies with
+     * this table.
+     *
+     * @param freqs freqs[s] is the number of times s is encoded
+     * @return the total length of all the codes
+     */
+    public long getEncodedSize(int[] freqs) {
+        long bits = 0;
+        int n = Math.min(freqs.length, alphabetSize);
+        for (int s = 0; s < n; s++) {
+            bits += (long) freqs[s] * lengths[s];
+        }
+        return bits;
+    }
+
+    /**
+     * Get the length of the code for a symbol.
+     *
+     * @param symbol the symbol
+     * @return the number of bits in its code, 0 if it has none
+     */
+    public int getLength(int symbol) {
+        return lengths[symbol];
+    }
+
+    /**
+     * Get the code for a symbol.
+     *
+     * @param symbol the symbol
+     * @return the code in the rightmost getLength(symbol) bits
+     */
+    public long getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    /**
+     * Get the length of the longest code in this table.
+     *
+     * @return the maximum code length
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Get the number of symbols that have a code.
+     *
+     * @return the number of symbols
+     */
+    public int getNumSymbols() {
+        return numSymbols;
+    }
+
+    /**
+     * Get the number of possible symbols.
+     *
+     * @return the alphabet size
+     */
+    public int getAlphabetSize() {
+        return alphabetSize;
+    }
+
+    /**
+     * The number of bits needed to store values from 0 to max.
+     *
+     * @param max the largest value to store
+     * @return the number of bits, at least 1
+     */
+    static int bitsFor(int max) {
+        return Math.max(1, BITS_PER_INT - Integer.numberOfLeadingZeros(max));
+    }
+}
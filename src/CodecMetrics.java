@@ -0,0 +1,274 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts of the operations, bytes and latencies of compressing and
+ * uncompressing, by header format, for watching a long running service.
+ * <p>
+ * Every count is a LongAdder and every latency goes in a LatencyHistogram,
+ * so any number of threads can record at once without waiting for each
+ * other, and only reading the metrics adds the counts up. The slots for
+ * all formats are made up front, so recording never allocates either.
+ * <p>
+ * The metrics shared by all processors come from getDefault and are
+ * published as the MXBean DEFAULT_NAME on the platform MBean server.
+ */
+public class CodecMetrics implements CodecMetricsMXBean {
+
+    /**
+     * Name the default metrics are published under.
+     */
+    public static final String DEFAULT_NAME = "huffman:type=CodecMetrics";
+
+    /**
+     * Operations that are recorded.
+     */
+    public static final int COMPRESS = 0;
+    public static final int UNCOMPRESS = 1;
+
+    // header formats in the order of their bits in IHuffConstants, null
+    // for the bits used as flags
+    private static final String[] FORMAT_NAMES = {
+        "counts", "tree", "custom", "sparse", "context", "lz77", null, null, "dictionary"
+    };
+
+    private final Stats[][] stats = new Stats[2][FORMAT_NAMES.length];
+    private volatile long since = System.nanoTime();
+
+    /**
+     * Creates empty metrics that are not published.
+     */
+    public CodecMetrics() {
+        for (Stats[] operation : stats) {
+            for (int i = 0; i < operation.length; i++) {
+                operation[i] = new Stats();
+            }
+        }
+    }
+
+    /*
+     * The shared metrics, made and published the first time they are used.
+     */
+    private static class Holder {
+        private static final CodecMetrics DEFAULT = new CodecMetrics();
+
+        static {
+            try {
+                DEFAULT.register(new ObjectName(DEFAULT_NAME));
+            } catch (JMException | SecurityException e) {
+                // still count, there is just nowhere to read the counts from
+            }
+        }
+    }
+
+    /**
+     * Get the metrics shared by all processors, published as DEFAULT_NAME.
+     *
+     * @return the shared metrics
+     */
+    public static CodecMetrics getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server.
+     *
+     * @param name the name to publish them under
+     * @throws JMException if the name is taken or the metrics can not be
+     *                     published
+     */
+    public void register(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    /**
+     * Records one operation that finished.
+     *
+     * @param operation    COMPRESS or UNCOMPRESS
+     * @param headerFormat the header format of the compressed data
+     * @param bytesIn      the number of bytes read
+     * @param bytesOut     the number of bytes written
+     * @param nanos        how long the operation took
+     */
+    public void record(int operation, int headerFormat, long bytesIn, long bytesOut,
+            long nanos) {
+        Stats slot = slot(operation, headerFormat);
+        if (slot != null) {
+            slot.operations.increment();
+            slot.bytesIn.add(bytesIn);
+            slot.bytesOut.add(bytesOut);
+            slot.latency.record(nanos);
+        }
+    }
+
+    /**
+     * Records one operation that failed. Its bytes and latency are not
+     * recorded.
+     *
+     * @param operation    COMPRESS or UNCOMPRESS
+     * @param headerFormat the header format of the compressed data
+     */
+    public void recordError(int operation, int headerFormat) {
+        Stats slot = slot(operation, headerFormat);
+        if (slot != null) {
+            slot.errors.increment();
+        }
+    }
+
+    // Get the slot for a format, or null if the format is unknown.
+    private Stats slot(int operation, int headerFormat) {
+        int format = headerFormat & ~(IHuffConstants.TRANSFORM_FLAG
+                | IHuffConstants.CHECKSUM_FLAG);
+        int bits = format & ~IHuffConstants.MAGIC_NUMBER;
+        if ((format & IHuffConstants.MAGIC_NUMBER) != IHuffConstants.MAGIC_NUMBER
+                || Integer.bitCount(bits) != 1) {
+            return null;
+        }
+        int index = Integer.numberOfTrailingZeros(bits);
+        return index < FORMAT_NAMES.length && FORMAT_NAMES[index] != null
+                ? stats[operation][index] : null;
+    }
+
+    public List<FormatStats> getCompressStats() {
+        return snapshot(COMPRESS);
+    }
+
+    public List<FormatStats> getUncompressStats() {
+        return snapshot(UNCOMPRESS);
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - since) / 1e9;
+    }
+
+    public void reset() {
+        for (Stats[] operation : stats) {
+            for (Stats slot : operation) {
+                slot.reset();
+            }
+        }
+        since = System.nanoTime();
+    }
+
+    private List<FormatStats> snapshot(int operation) {
+        double seconds = getElapsedSeconds();
+        List<FormatStats> result = new ArrayList<>();
+        for (int i = 0; i < FORMAT_NAMES.length; i++) {
+            Stats slot = stats[operation][i];
+            if (slot.operations.sum() > 0 || slot.errors.sum() > 0) {
+                result.add(new FormatStats(FORMAT_NAMES[i], operation, slot, seconds));
+            }
+        }
+        return result;
+    }
+
+    /*
+     * The counters of one operation on one format.
+     */
+    private static class Stats {
+        private final LongAdder operations = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void reset() {
+            operations.reset();
+            errors.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            latency.reset();
+        }
+    }
+
+    /**
+     * The metrics of one operation on one header format at one moment.
+     * JMX shows each one as a CompositeData with an item per getter.
+     */
+    public static class FormatStats {
+        private final String format;
+        private final long operations;
+        private final long errors;
+        private final double operationsPerSecond;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final double ratio;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+
+        FormatStats(String format, int operation, Stats slot, double seconds) {
+            this.format = format;
+            operations = slot.operations.sum();
+            errors = slot.errors.sum();
+            operationsPerSecond = seconds > 0 ? operations / seconds : 0;
+            bytesIn = slot.bytesIn.sum();
+            bytesOut = slot.bytesOut.sum();
+            // compressed size over uncompressed size either way
+            long compressed = operation == COMPRESS ? bytesOut : bytesIn;
+            long uncompressed = operation == COMPRESS ? bytesIn : bytesOut;
+            ratio = uncompressed > 0 ? (double) compressed / uncompressed : 0;
+            p50Micros = slot.latency.getPercentile(0.5) / 1e3;
+            p99Micros = slot.latency.getPercentile(0.99) / 1e3;
+            p999Micros = slot.latency.getPercentile(0.999) / 1e3;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getOperationsPerSecond() {
+            return operationsPerSecond;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * Get the compressed bytes over the uncompressed bytes.
+         *
+         * @return the ratio, or 0 if no bytes have been uncompressed
+         */
+        public double getRatio() {
+            return ratio;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: %d ops (%d errors), %.1f ops/s, %d -> %d bytes, ratio %.3f,"
+                    + " p50 %.1f us, p99 %.1f us, p999 %.1f us", format, operations, errors,
+                    operationsPerSecond, bytesIn, bytesOut, ratio, p50Micros, p99Micros,
+                    p999Micros);
+        }
+    }
+}
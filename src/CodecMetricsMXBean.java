@@ -0,0 +1,35 @@
+import java.util.List;
+
+/**
+ * Management interface of CodecMetrics, published over JMX. Each list has
+ * one entry for each header format used since the metrics were created or
+ * last reset.
+ */
+public interface CodecMetricsMXBean {
+
+    /**
+     * Get the compression metrics for each header format.
+     *
+     * @return the metrics, one entry per format
+     */
+    List<CodecMetrics.FormatStats> getCompressStats();
+
+    /**
+     * Get the uncompression metrics for each header format.
+     *
+     * @return the metrics, one entry per format
+     */
+    List<CodecMetrics.FormatStats> getUncompressStats();
+
+    /**
+     * Get the time the metrics have been collected over.
+     *
+     * @return the seconds since the metrics were created or last reset
+     */
+    double getElapsedSeconds();
+
+    /**
+     * Sets all counts and latencies back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,500 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Everything needed to compress one input, worked out by
+ * SimpleHuffProcessor.plan: the header format and word size, the
+ * frequencies counted, the code tables built from them and the number of
+ * bits that compressing will save. A plan is not changed after it is built,
+ * so compressing with it does not depend on any state in the processor and
+ * many plans can be compressed at once through one processor.
+ * <p>
+ * The Context and LZ77 Formats count with the model of the calling thread
+ * and keep only a copy of the tables they code with, and LZ77 compresses
+ * take the match finder of their own thread, so one plan can be compressed
+ * on any number of threads at once.
+ */
+public class CompressionPlan implements IHuffConstants {
+    // bits used for the word size and tail size in the Sparse Format header
+    static final int WORD_SIZE_BITS = 8;
+
+    private final int headerFormat;
+    private final int wordSize;
+    private final int tailBits;
+    private final int[] freqs;
+    private HuffmanTree frequencyTree;
+    private CodeTable codeTable;
+    private final ContextModel contextModel;
+    private final Lz77Model lz77Model;
+    private final TransformPipeline transform;
+    private final HuffDictionary dictionary;
+    private final boolean checksummed;
+    private final int savedBits;
+    // bits of the compressed file, before padding to a whole byte
+    private final long compressedBits;
+    // bits of data to code, after any transforms
+    private final long dataBits;
+
+    /**
+     * Reads in and builds a plan to compress it.
+     *
+     * @param in           the data to compress, not a BitInputStream
+     * @param headerFormat the header format to use
+     * @param wordSize     the number of bits per word
+     * @param transform    transforms to apply before coding, or null
+     * @param checksummed  true to end the file with the CRC32C of the data
+     * @param dictionary   the dictionary for the Dictionary Format, or null
+     * @param windowBits   the window size for the LZ77 Format
+     * @param matchLevel   the effort level for the LZ77 Format
+     * @param listener     told how the counting is going, or null
+     * @throws IOException if an error occurs while reading in, or the
+     *                     listener cancels
+     */
+    CompressionPlan(InputStream in, int headerFormat, int wordSize, TransformPipeline transform,
+            boolean checksummed, HuffDictionary dictionary, int windowBits, int matchLevel,
+            IProgressListener listener) throws IOException {
+        if (headerFormat != STORE_SPARSE && wordSize != BITS_PER_WORD) {
+            // Count, Tree, Context, LZ77 and Dictionary Formats all assume BITS_PER_WORD
+            throw new IllegalArgumentException("Only the Sparse Format supports " +
+                    wordSize + " bits per word.");
+        }
+        if (headerFormat == STORE_DICTIONARY && dictionary == null) {
+            throw new IllegalArgumentException("The Dictionary Format needs a dictionary.");
+        }
+        this.dictionary = headerFormat == STORE_DICTIONARY ? dictionary : null;
+        this.headerFormat = headerFormat;
+        this.wordSize = wordSize;
+        this.transform = transform;
+        this.checksummed = checksummed;
+        // one extra slot for the PSEUDO_EOF of this word size
+        freqs = new int[(1 << wordSize) + 1];
+        TransformInputStream transformed = null;
+        if (transform != null) {
+            transformed = transform.forward(in);
+            in = transformed;
+        }
+        long fileSize;
+        ContextModel contexts = null;
+        Lz77Model lz77 = null;
+        HuffPhaseEvent event = HuffPhaseEvent.start();
+        if (headerFormat == STORE_LZ77) {
+            byte[] data = in.readAllBytes();
+            in.close();
+            lz77 = Lz77Model.forThread();
+            lz77.count(data, data.length, windowBits, matchLevel, listener);
+            fileSize = (long) data.length * BITS_PER_WORD;
+        } else {
+            if (headerFormat == STORE_CONTEXT) {
+                contexts = ContextModel.forThread();
+                contexts.reset();
+            }
+            fileSize = getFrequencies(in, contexts, listener);
+        }
+        event.commit(HuffPhaseEvent.COUNT, headerFormat, fileSize / BITS_PER_WORD, 0, null);
+        dataBits = fileSize;
+        tailBits = (int) (fileSize % wordSize);
+        buildTables();
+        long bodyBits;
+        if (contexts != null) {
+            bodyBits = contexts.getEncodedSize();
+        } else if (lz77 != null) {
+            bodyBits = lz77.getEncodedSize();
+        } else {
+            bodyBits = codeTable.getEncodedSize(freqs);
+        }
+        // the models of this thread are used again by the next plan
+        contextModel = contexts == null ? null : contexts.copyTables();
+        lz77Model = lz77 == null ? null : lz77.copyTables();
+        long compressedSize = getCompressedSize(bodyBits);
+        if (transformed != null) {
+            // savings are measured against the data before it was transformed
+            fileSize = transformed.getBytesRead() * BITS_PER_WORD;
+            compressedSize += TRANSFORM_BITS;
+        }
+        compressedBits = compressedSize;
+        savedBits = toSavedBits(fileSize - compressedSize);
+    }
+
+    /**
+     * Builds a plan from counts of bytes made elsewhere, so a file can be
+     * counted in pieces. Only formats coded from the counts alone, the Count,
+     * Tree and Sparse Formats, can be planned this way, with BITS_PER_WORD bits
+     * per word and no transforms.
+     *
+     * @param counts       counts[i] is the number of bytes with value i
+     * @param headerFormat STORE_COUNTS, STORE_TREE or STORE_SPARSE
+     */
+    CompressionPlan(int[] counts, int headerFormat) {
+        if (headerFormat != STORE_COUNTS && headerFormat != STORE_TREE
+                && headerFormat != STORE_SPARSE) {
+            throw new IllegalArgumentException("Format " + headerFormat
+                    + " can not be planned from counts.");
+        }
+        this.headerFormat = headerFormat;
+        wordSize = BITS_PER_WORD;
+        transform = null;
+        dictionary = null;
+        checksummed = false;
+        contextModel = null;
+        lz77Model = null;
+        freqs = new int[ALPH_SIZE + 1];
+        long fileSize = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            freqs[i] = counts[i];
+            fileSize += counts[i];
+        }
+        tailBits = 0;
+        dataBits = fileSize * BITS_PER_WORD;
+        buildTables();
+        compressedBits = getCompressedSize(codeTable.getEncodedSize(freqs));
+        savedBits = toSavedBits(dataBits - compressedBits);
+    }
+
+    // Bits saved as returned by getSavedBits, held to the range of an int
+    // so inputs of 256MB or more keep the right sign.
+    private static int toSavedBits(long saved) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, saved));
+    }
+
+    // Builds the code table or tree from freqs. The Context Format tables
+    // are built while counting, and the Dictionary Format uses the table of
+    // its dictionary.
+    private void buildTables() {
+        HuffPhaseEvent event = HuffPhaseEvent.start();
+        if (headerFormat == STORE_DICTIONARY) {
+            codeTable = dictionary.getCodeTable();
+            freqs[PSEUDO_EOF] = 1;
+        } else if (headerFormat == STORE_SPARSE) {
+            freqs[1 << wordSize] = 1;
+            codeTable = new CodeTable(freqs.length);
+            codeTable.buildCanonical(freqs);
+        } else if (headerFormat != STORE_CONTEXT && headerFormat != STORE_LZ77) {
+            frequencyTree = new HuffmanTree(freqs);
+            codeTable = frequencyTree.getCodeTable();
+            // the tree adds its own PSEUDO_EOF, count it for the size below
+            freqs[PSEUDO_EOF] = 1;
+        }
+        event.commit(HuffPhaseEvent.BUILD_TABLES, headerFormat, getDataBytes(), 0, codeTable);
+    }
+
+    // Get the size of the compressed file in bits, without transforms,
+    // from the size of the coded body.
+    private long getCompressedSize(long bodyBits) {
+        long compressedSize = BITS_PER_INT * 2; // 2 ints to indicate huffman encoding
+        compressedSize += getHeaderSize();
+        if (checksummed) {
+            compressedSize += CHECKSUM_BITS;
+        }
+        return compressedSize + bodyBits + tailBits;
+    }
+
+    /**
+     * Get the number of bits of the header after the magic number and
+     * header format value, without transforms.
+     *
+     * @return the bits of the header
+     */
+    int getHeaderBits() {
+        return getHeaderSize();
+    }
+
+    /**
+     * Calculates the size of the header of the compressed file
+     *
+     * @return the bits of the header
+     */
+    private int getHeaderSize() {
+        int headerSize = 0;
+        if (headerFormat == STORE_COUNTS) {
+            headerSize += ALPH_SIZE * BITS_PER_INT;
+        } else if (headerFormat == STORE_TREE) {
+            headerSize += frequencyTree.getBitSize() + BITS_PER_INT;
+        } else if (headerFormat == STORE_SPARSE) {
+            headerSize += WORD_SIZE_BITS * 2 + codeTable.getHeaderSize();
+        } else if (headerFormat == STORE_CONTEXT) {
+            headerSize += contextModel.getHeaderSize();
+        } else if (headerFormat == STORE_LZ77) {
+            headerSize += lz77Model.getHeaderSize();
+        } else if (headerFormat == STORE_DICTIONARY) {
+            headerSize += DICTIONARY_ID_BITS;
+        }
+        return headerSize;
+    }
+
+    /**
+     * Get the frequencies from every word in an InputStream, storing them
+     * in freqs. freqs[i] is the frequency of i. For the Context Format
+     * the words are also counted by context and the context tables built.
+     *
+     * @param in       the InputStream to get the frequencies from
+     * @param contexts the model to count contexts in, or null
+     * @param listener told how the counting is going, or null
+     * @return the number of bits in the InputStream
+     * @throws IOException
+     */
+    private long getFrequencies(InputStream in, ContextModel contexts, IProgressListener listener)
+            throws IOException {
+        BitInputStream bitIn = new BitInputStream(in);
+        WordReader words = new WordReader(bitIn, wordSize);
+        // Each unique word is represented as an index in the array
+        int bits = words.read();
+        long fileBits = 0;
+        int previous = 0;
+        boolean contextual = contexts != null;
+        int count = 0;
+        while (bits > -1) {
+            freqs[bits]++;
+            if (contextual) {
+                contexts.add(previous, bits);
+            }
+            previous = bits;
+            fileBits += wordSize;
+            if (listener != null && ++count % IProgressListener.INTERVAL == 0) {
+                IProgressListener.report(listener, IProgressListener.COUNT,
+                        fileBits / BITS_PER_WORD, -1);
+            }
+            bits = words.read();
+        }
+        if (contextual) {
+            contexts.build(previous);
+        }
+        fileBits += words.getTailBits();
+        bitIn.close();
+        return fileBits;
+    }
+
+    /**
+     * Writes the magic number, the header format value and the header of
+     * the compressed file.
+     *
+     * @param output the BitOutputStream to write to
+     * @return the number of bits written on this header, not counting the
+     *         magic number and header format value
+     */
+    int writeHeader(BitOutputStream output) {
+        int headerSize = 0;
+        // write the two sentinel values to indicate file type and compression format
+        output.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        int flags = checksummed ? CHECKSUM_FLAG : 0;
+        if (transform != null) {
+            output.writeBits(BITS_PER_INT, headerFormat | flags | TRANSFORM_FLAG);
+            output.writeBits(TRANSFORM_BITS, transform.getStages());
+            headerSize += TRANSFORM_BITS;
+        } else {
+            output.writeBits(BITS_PER_INT, headerFormat | flags);
+        }
+        if (headerFormat == STORE_COUNTS) {
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                headerSize += BITS_PER_INT;
+                output.writeBits(BITS_PER_INT, freqs[i]);
+            }
+        } else if (headerFormat == STORE_TREE) {
+            headerSize += BITS_PER_INT;
+            output.writeBits(BITS_PER_INT, frequencyTree.getBitSize());
+            headerSize += frequencyTree.writeBits(output);
+        } else if (headerFormat == STORE_SPARSE) {
+            headerSize += WORD_SIZE_BITS * 2;
+            output.writeBits(WORD_SIZE_BITS, wordSize);
+            output.writeBits(WORD_SIZE_BITS, tailBits);
+            headerSize += codeTable.writeHeader(output);
+        } else if (headerFormat == STORE_CONTEXT) {
+            headerSize += contextModel.writeHeader(output);
+        } else if (headerFormat == STORE_LZ77) {
+            headerSize += lz77Model.writeHeader(output);
+        } else if (headerFormat == STORE_DICTIONARY) {
+            headerSize += DICTIONARY_ID_BITS;
+            output.writeBits(DICTIONARY_ID_BITS, dictionary.getId());
+        }
+        return headerSize;
+    }
+
+    /**
+     * Wraps the input to compress in the transforms of this plan, if any.
+     *
+     * @param in the data to compress
+     * @return the data to Huffman code
+     */
+    InputStream transform(InputStream in) {
+        return transform == null ? in : transform.forward(in);
+    }
+
+    /**
+     * Writes the body of the compressed file using the CodeTable of this
+     * plan, or for the Context Format the table for the previous word, or
+     * for the LZ77 Format the LZ77 codes. Any bits after the last whole
+     * word are written as they are after the PSEUDO_EOF code.
+     *
+     * @param input    the BitInputStream from the file being compressed,
+     *                 after transform
+     * @param output   the BitOutputStream being written to
+     * @param listener told how the compression is going, or null
+     * @return the number of bits written on this body
+     * @throws IOException if reading fails or the listener cancels
+     */
+    int compressBody(BitInputStream input, BitOutputStream output, IProgressListener listener)
+            throws IOException {
+        if (headerFormat == STORE_LZ77) {
+            byte[] data = input.readAllBytes();
+            return lz77Model.write(data, data.length, output, listener);
+        }
+        int bitsWritten = 0;
+        WordReader words = new WordReader(input, wordSize);
+        boolean contextual = headerFormat == STORE_CONTEXT;
+        CodeTable table = contextual ? contextModel.getTable(0) : codeTable;
+        int nextBits = words.read();
+        long count = 0;
+        long total = getDataBytes();
+        while (nextBits > -1) {
+            bitsWritten += table.write(output, nextBits);
+            if (contextual) {
+                table = contextModel.getTable(nextBits);
+            }
+            if (listener != null && ++count % IProgressListener.INTERVAL == 0) {
+                IProgressListener.report(listener, IProgressListener.COMPRESS,
+                        count * wordSize / BITS_PER_WORD, total);
+            }
+            nextBits = words.read();
+        }
+        bitsWritten += table.write(output, 1 << wordSize);
+        if (words.getTailBits() > 0) {
+            output.writeBits(words.getTailBits(), words.getTailValue());
+            bitsWritten += words.getTailBits();
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Writes the codes of the bytes data[from] to data[to - 1], for a plan
+     * made from counts. Pieces of a file can be coded at the same time this
+     * way and joined in order, followed by writeEnd.
+     *
+     * @param data   the data being compressed
+     * @param from   the first byte to code
+     * @param to     one past the last byte to code
+     * @param output the BitOutputStream being written to
+     * @return the number of bits written
+     */
+    int compressRange(byte[] data, int from, int to, BitOutputStream output) {
+        int bitsWritten = 0;
+        for (int i = from; i < to; i++) {
+            bitsWritten += codeTable.write(output, data[i] & 0xff);
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Can the body be written with compressRange and writeEnd. True for
+     * the Count, Tree, Sparse and Dictionary Formats with BITS_PER_WORD bits
+     * per word and no transforms.
+     *
+     * @return true if the body can be coded from bytes in pieces
+     */
+    boolean isRangeCoded() {
+        return codeTable != null && wordSize == BITS_PER_WORD && transform == null;
+    }
+
+    /**
+     * Writes the PSEUDO_EOF code that ends a body written by compressRange.
+     *
+     * @param output the BitOutputStream being written to
+     * @return the number of bits written
+     */
+    int writeEnd(BitOutputStream output) {
+        return codeTable.write(output, PSEUDO_EOF);
+    }
+
+    /**
+     * Does this plan end the file with the CRC32C of the original data.
+     *
+     * @return true if writeChecksum must be called after the body
+     */
+    boolean isChecksummed() {
+        return checksummed;
+    }
+
+    /**
+     * Writes the checksum that ends a file compressed by a plan for which
+     * isChecksummed is true, after the body.
+     *
+     * @param output   the BitOutputStream being written to
+     * @param checksum the CRC32C of the data before any transforms
+     * @return the number of bits written
+     */
+    int writeChecksum(BitOutputStream output, long checksum) {
+        // in halves, since writeBits sign extends a full int that is not
+        // on a byte boundary
+        output.writeBits(CHECKSUM_BITS / 2, (int) (checksum >>> (CHECKSUM_BITS / 2)));
+        output.writeBits(CHECKSUM_BITS / 2, (int) checksum);
+        return CHECKSUM_BITS;
+    }
+
+    /**
+     * Get the number of bits compressing with this plan will save.
+     *
+     * @return the bits saved, negative if the compressed file is larger,
+     *         held to the range of an int
+     */
+    public int getSavedBits() {
+        return savedBits;
+    }
+
+    /**
+     * Get the size of the file compressing with this plan will write,
+     * including the header and any checksum. Unlike getSavedBits it does
+     * not overflow for large inputs.
+     *
+     * @return the size in bits, before padding to a whole byte
+     */
+    public long getCompressedBits() {
+        return compressedBits;
+    }
+
+    /**
+     * Get the number of bytes of data this plan codes, after any transforms.
+     *
+     * @return the size of the data in bytes, rounded down
+     */
+    public long getDataBytes() {
+        return dataBits / BITS_PER_WORD;
+    }
+
+    /**
+     * Get the code table of this plan, for the Count, Tree, Sparse and
+     * Dictionary Formats.
+     *
+     * @return the code table, or null for the Context and LZ77 Formats
+     */
+    CodeTable getCodeTable() {
+        return codeTable;
+    }
+
+    /**
+     * Get the header format this plan compresses with.
+     *
+     * @return the header format value, without TRANSFORM_FLAG or
+     *         CHECKSUM_FLAG
+     */
+    public int getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * Get the number of bits per word this plan compresses with.
+     *
+     * @return the word size
+     */
+    public int getWordSize() {
+        return wordSize;
+    }
+
+    /**
+     * Get the frequencies counted for this plan. For the LZ77 Format nothing
+     * is counted per word and all frequencies are 0.
+     *
+     * @return a copy of the frequencies, index PSEUDO_EOF of the word size
+     *         included
+     */
+    public int[] getFrequencies() {
+        return freqs.clone();
+    }
+}
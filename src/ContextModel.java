@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Order-1 context model for the Context Format. Each value is encoded with a
+ * code table picked by the value before it (the context), so values that
+ * usually follow each other get short codes. The first value uses context 0.
+ * <p>
+ * A context only gets its own table when the bits it saves are more than the
+ * bits its table adds to the header. All other contexts are grouped together
+ * and share one table built from their combined counts, which keeps the header
+ * small for contexts that are rare or look like the file as a whole.
+ * <p>
+ * Tables, counts and scratch space are kept between files. Plans and
+ * uncompress use the model of their thread, from forThread, so once it has
+ * been used counting and building tables for the next file on that thread do
+ * not allocate. A plan keeps only copyTables, the tables it codes with.
+ */
+public class ContextModel implements IHuffConstants {
+
+    /**
+     * The number of contexts, one per possible previous value.
+     */
+    public static final int NUM_CONTEXTS = ALPH_SIZE;
+
+    private static final ThreadLocal<ContextModel> LOCAL =
+            ThreadLocal.withInitial(ContextModel::new);
+
+    // counts[c][v] is the number of times v followed c, plus PSEUDO_EOF
+    private int[][] counts;
+    private int[] sharedCounts;
+    private CodeTable shared;
+    private CodeTable[] own;
+    // selected[c] is the table used in context c, either own[c] or shared
+    private CodeTable[] selected;
+    private long[] work;
+
+    /**
+     * Creates an empty model.
+     */
+    public ContextModel() {
+        counts = new int[NUM_CONTEXTS][ALPH_SIZE + 1];
+        sharedCounts = new int[ALPH_SIZE + 1];
+        shared = new CodeTable(ALPH_SIZE + 1);
+        own = new CodeTable[NUM_CONTEXTS];
+        selected = new CodeTable[NUM_CONTEXTS];
+        work = new long[6 * (ALPH_SIZE + 1)];
+    }
+
+    // Makes a model holding copies of the tables of model, for coding only.
+    private ContextModel(ContextModel model) {
+        shared = model.shared.copy();
+        selected = new CodeTable[NUM_CONTEXTS];
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            selected[c] = model.selected[c] == model.shared ? shared : model.selected[c].copy();
+        }
+    }
+
+    /**
+     * Get the model of the calling thread, made the first time it is asked
+     * for. It must not be passed to other threads, and is changed by the
+     * next plan or uncompress on this thread.
+     *
+     * @return the model of this thread, to reset before counting
+     */
+    public static ContextModel forThread() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Makes a model with copies of the built tables, which can code with
+     * getTable, writeHeader and getHeaderSize after this model is used for
+     * another file. It has no counts, so it can not count or build.
+     *
+     * @return the copy
+     */
+    public ContextModel copyTables() {
+        return new ContextModel(this);
+    }
+
+    /**
+     * Clears the counts so the model can be used for another file.
+     */
+    public void reset() {
+        for (int[] row : counts) {
+            Arrays.fill(row, 0);
+        }
+    }
+
+    /**
+     * Counts one occurrence of value in a context.
+     *
+     * @param context the value before value, or 0 for the first value
+     * @param value   the value
+     */
+    public void add(int context, int value) {
+        counts[context][value]++;
+    }
+
+    /**
+     * Builds the code tables from the counts. The PSEUDO_EOF is counted in
+     * the context of the last value.
+     *
+     * @param lastContext the last value in the file, or 0 if it is empty
+     */
+    public void build(int lastContext) {
+        counts[lastContext][PSEUDO_EOF]++;
+        // first pick the contexts that are worth a table against a table
+        // for the whole file
+        Arrays.fill(sharedCounts, 0);
+        for (int[] row : counts) {
+            for (int v = 0; v < row.length; v++) {
+                sharedCounts[v] += row[v];
+            }
+        }
+        shared.buildCanonical(sharedCounts, work);
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            selected[c] = shared;
+            long sharedBits = shared.getEncodedSize(counts[c]);
+            if (sharedBits > 0) {
+                if (own[c] == null) {
+                    own[c] = new CodeTable(ALPH_SIZE + 1);
+                }
+                own[c].buildCanonical(counts[c], work);
+                if (own[c].getEncodedSize(counts[c]) + own[c].getHeaderSize() < sharedBits) {
+                    selected[c] = own[c];
+                }
+            }
+        }
+        // then fit the shared table to the contexts that are left
+        Arrays.fill(sharedCounts, 0);
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            if (selected[c] == shared) {
+                for (int v = 0; v < sharedCounts.length; v++) {
+                    sharedCounts[v] += counts[c][v];
+                }
+            }
+        }
+        shared.buildCanonical(sharedCounts, work);
+    }
+
+    /**
+     * Get the table to encode or decode the value following context.
+     *
+     * @param context the previous value
+     * @return the code table for the context
+     */
+    public CodeTable getTable(int context) {
+        return selected[context];
+    }
+
+    /**
+     * Get the number of bits needed to encode the counted values with the
+     * built tables, including the PSEUDO_EOF.
+     *
+     * @return the size of the body in bits
+     */
+    public long getEncodedSize() {
+        long bits = 0;
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            bits += selected[c].getEncodedSize(counts[c]);
+        }
+        return bits;
+    }
+
+    /**
+     * Get the number of bits writeHeader writes.
+     *
+     * @return the size of the header in bits
+     */
+    public int getHeaderSize() {
+        int headerSize = NUM_CONTEXTS + shared.getHeaderSize();
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            if (selected[c] != shared) {
+                headerSize += selected[c].getHeaderSize();
+            }
+        }
+        return headerSize;
+    }
+
+    /**
+     * Writes one bit per context, 1 if it has its own table, then the shared
+     * table and then the table of each context with its own.
+     *
+     * @param out the stream to write to
+     * @return the number of bits written
+     */
+    public int writeHeader(BitOutputStream out) {
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            out.writeBits(1, selected[c] == shared ? 0 : 1);
+        }
+        int headerSize = NUM_CONTEXTS + shared.writeHeader(out);
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            if (selected[c] != shared) {
+                headerSize += selected[c].writeHeader(out);
+            }
+        }
+        return headerSize;
+    }
+
+    /**
+     * Replaces the tables of this model with those read from in, as written
+     * by writeHeader.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the header is truncated or invalid
+     */
+    public void readHeader(BitInputStream in) throws IOException {
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            int flag = in.readBits(1);
+            if (flag < 0) {
+                throw new IOException("Invalid context header.");
+            }
+            if (flag == 0) {
+                selected[c] = shared;
+            } else {
+                if (own[c] == null) {
+                    own[c] = new CodeTable(ALPH_SIZE + 1);
+                }
+                selected[c] = own[c];
+            }
+        }
+        shared.readHeader(in);
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            if (selected[c] != shared) {
+                selected[c].readHeader(in);
+            }
+        }
+    }
+
+    /**
+     * Get the number of contexts that have their own table.
+     *
+     * @return the number of tables besides the shared one
+     */
+    public int getNumTables() {
+        int tables = 0;
+        for (int c = 0; c < NUM_CONTEXTS; c++) {
+            if (selected[c] != shared) {
+                tables++;
+            }
+        }
+        return tables;
+    }
+}
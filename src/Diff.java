@@ -1,20 +1,35 @@
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
-import javax.swing.ProgressMonitorInputStream;
 import javax.swing.UIManager;
 
 /**
  * Compare two files to see if they are the same bit for bit.
+ * <p>
+ * Both files are mapped into memory and the bytes they have in common are
+ * split into segments of SEGMENT_SIZE bytes that are compared in parallel,
+ * each with ByteBuffer.mismatch, which compares many bytes per instruction.
+ * Offsets and counts are longs, so files of any size can be compared.
  * @author Owen Astrachan
  *
  */
 public class Diff {
- 
+
+    /**
+     * Number of bytes compared by one task.
+     */
+    public static final int SEGMENT_SIZE = 1 << 26;
+
     protected static JFileChooser ourChooser = new JFileChooser(".");
     
     /**
@@ -32,34 +47,8 @@ public class Diff {
      * @param diffStats Stores the difference statistics.
      */
     public static void doDiffer(File[] files, DiffStats diffStats) {
-        final int BITS_PER_BYTE = 8;
         try {
-            ProgressMonitorInputStream stream1 = 
-                new ProgressMonitorInputStream(null, "reading " + files[0].getName(),
-                        new FileInputStream(files[0]));
-            ProgressMonitorInputStream stream2 = 
-                new ProgressMonitorInputStream(null, "reading " + files[1].getName(),
-                        new FileInputStream(files[1]));
-            BitInputStream b1 = new BitInputStream(stream1);
-            BitInputStream b2 = new BitInputStream(stream2);
-            diffStats.file1Size = files[0].length();
-            diffStats.file2Size = files[1].length();
-            int x = b1.readBits(BITS_PER_BYTE);
-            int y = b2.readBits(BITS_PER_BYTE);
-            int bytesRead = 1;
-            while (x != -1 && y != -1) {
-                if (x != y) {
-                    diffStats.totalDifferences++;
-                    if (diffStats.firstDiff == -1)
-                        diffStats.firstDiff = bytesRead;
-                }
-                x = b1.readBits(BITS_PER_BYTE);
-                y = b2.readBits(BITS_PER_BYTE);
-                bytesRead++;
-            }
-            bytesRead--; // last read didn't work
-            b1.close();
-            b2.close();
+            compare(files[0], files[1], false, diffStats);
         } catch (IOException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null,"trouble reading","Diff Error",
@@ -67,12 +56,109 @@ public class Diff {
         }
       
     }
+
+    /**
+     * Compare two files without a GUI. Only the bytes up to the length of
+     * the shorter file are compared; a difference in size is shown by the
+     * sizes in the result.
+     * @param file1 The first file.
+     * @param file2 The second file.
+     * @param stopAtFirst true to stop once the first difference is found,
+     * in which case the count of differences is 1 if there are any.
+     * @return The difference statistics.
+     * @throws IOException if either file can not be read.
+     */
+    public static DiffStats compare(File file1, File file2, boolean stopAtFirst)
+            throws IOException {
+        DiffStats diffStats = new DiffStats();
+        compare(file1, file2, stopAtFirst, diffStats);
+        return diffStats;
+    }
+
+    private static void compare(File file1, File file2, boolean stopAtFirst,
+            DiffStats diffStats) throws IOException {
+        try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+                FileChannel channel2 = FileChannel.open(file2.toPath(),
+                        StandardOpenOption.READ)) {
+            diffStats.file1Size = channel1.size();
+            diffStats.file2Size = channel2.size();
+            long common = Math.min(diffStats.file1Size, diffStats.file2Size);
+            long segments = (common + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+            AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+            LongAdder total = new LongAdder();
+            try {
+                LongStream.range(0, segments).parallel().forEach(segment -> {
+                    long offset = segment * SEGMENT_SIZE;
+                    // a difference before this segment has already been found
+                    if (stopAtFirst && first.get() < offset) {
+                        return;
+                    }
+                    int length = (int) Math.min(SEGMENT_SIZE, common - offset);
+                    try {
+                        compareSegment(channel1.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                                channel2.map(FileChannel.MapMode.READ_ONLY, offset, length),
+                                offset, stopAtFirst, first, total);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (first.get() != Long.MAX_VALUE) {
+                // positions count from 1, as they always have
+                diffStats.firstDiff = first.get() + 1;
+                diffStats.totalDifferences = stopAtFirst ? 1 : total.sum();
+            }
+        }
+    }
+
+    // Compares two mapped segments that start at offset in their files,
+    // adding their differences to total and lowering first to the first one.
+    private static void compareSegment(MappedByteBuffer segment1, MappedByteBuffer segment2,
+            long offset, boolean stopAtFirst, AtomicLong first, LongAdder total) {
+        int length = segment1.limit();
+        int pos = 0;
+        long count = 0;
+        while (pos < length) {
+            int found = segment1.slice(pos, length - pos)
+                    .mismatch(segment2.slice(pos, length - pos));
+            if (found == -1) {
+                break;
+            }
+            pos += found;
+            first.accumulateAndGet(offset + pos, Math::min);
+            if (stopAtFirst) {
+                break;
+            }
+            // count the whole run of differences before looking again
+            while (pos < length && segment1.get(pos) != segment2.get(pos)) {
+                count++;
+                pos++;
+            }
+        }
+        total.add(count);
+    }
     
     /**
-     * Check two files for differences. 
-     * @param args None expected.
+     * Check two files for differences. With two file names the files are
+     * compared without a GUI and the exit status is 0 if they are the same
+     * and 1 if not.
+     * @param args None for the GUI, or [-first] file1 file2, where -first
+     * stops at the first difference.
      */
-    public static void main(String[] args){
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            boolean stopAtFirst = args[0].equals("-first");
+            int i = stopAtFirst ? 1 : 0;
+            if (args.length - i != 2) {
+                System.err.println("Usage: java Diff [-first] file1 file2");
+                System.exit(2);
+            }
+            DiffStats ds = compare(new File(args[i]), new File(args[i + 1]), stopAtFirst);
+            System.out.println(ds);
+            System.exit(ds.isSame() ? 0 : 1);
+        }
         setLookAndFeel();
         ourChooser.setMultiSelectionEnabled(true);
         ourChooser.setDialogTitle("Diff: choose two files");
@@ -101,16 +187,46 @@ public class Diff {
         }
     }
     
-    // Used to store differences between files, if any.
-    private static class DiffStats {
+    /**
+     * The differences between two files, if any.
+     */
+    public static class DiffStats {
         private long file1Size;
         private long file2Size;
-        private int firstDiff;
-        private int totalDifferences;
+        private long firstDiff;
+        private long totalDifferences;
         
         private DiffStats() {
             firstDiff = -1;
         }
+
+        public long getFile1Size() {
+            return file1Size;
+        }
+
+        public long getFile2Size() {
+            return file2Size;
+        }
+
+        /**
+         * Get the position of the first byte that differs.
+         * @return The position counting from 1, or -1 if there is none.
+         */
+        public long getFirstDiff() {
+            return firstDiff;
+        }
+
+        public long getTotalDifferences() {
+            return totalDifferences;
+        }
+
+        /**
+         * Check if the files are the same.
+         * @return true if the files are the same size with no differences.
+         */
+        public boolean isSame() {
+            return firstDiff == -1 && file1Size == file2Size;
+        }
         
         public String toString() {
             String result =  "file 1 size in bytes: " + file1Size + "\n"
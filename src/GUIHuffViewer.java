@@ -11,6 +11,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -27,7 +33,6 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ProgressMonitor;
-import javax.swing.ProgressMonitorInputStream;
 
 /**
  * The GUI/View for Huffman coding assignment. Clients communicate
@@ -51,12 +56,19 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
     private File myFile;
     private boolean myForce;
     private int myHeaderFormat;
-    private Thread myFirstFileThread;
-    private boolean myFirstReadingDone;
+    private CompletableFuture<Integer> myFirstReading;
+    private MonitorListener myProgress = new MonitorListener();
 
     private static JFileChooser ourChooser = 
             new JFileChooser(System.getProperties().getProperty("user.dir"));
 
+    // runs reading, compressing and uncompressing off the event thread
+    private static ExecutorService ourJobs = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "huff-viewer-job");
+        t.setDaemon(true);
+        return t;
+    });
+
     /** 
      * Create a new graphical user interface to perform Huffman
      * encoding operations.
@@ -89,6 +101,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
     public void setModel(IHuffProcessor model) {
         myModel = model;
         myModel.setViewer(this);
+        myModel.setProgressListener(myProgress);
     }
 
     /**
@@ -134,30 +147,21 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         myFile = ourChooser.getSelectedFile();
         
         // Create an input stream for the file and a progress monitor.
-        final ProgressMonitorInputStream pmis 
-            = getMonitorableStream(getFastByteReader(myFile), "counting/reading bits ...");
-        final ProgressMonitor progress = pmis.getProgressMonitor();
-        try {
-            myFirstFileThread = new Thread() {
-                public void run() {
-                    try {
-                        myFirstReadingDone = false;
-                        int saved = myModel.preprocessCompress(pmis, myHeaderFormat);
-                        showMessage("saved: "+ saved +" bits");
-                        myFirstReadingDone = true;
-                    } catch (IOException e) {
-                        showError("reading exception\n " + e);
-                        //e.printStackTrace();
-                    }
-                    if (progress.isCanceled()) {
-                        showError("reading cancelled");
-                    }
-                }
-            };
-            myFirstFileThread.start();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        final ProgressMonitor progress = getMonitor("counting/reading bits ...", myFile.length());
+        myProgress.watch(IProgressListener.COUNT, progress);
+        myFirstReading = myModel.preprocessCompressAsync(getFastByteReader(myFile),
+                myHeaderFormat, ourJobs);
+        myFirstReading.whenComplete((saved, e) -> {
+            progress.close();
+            if (e == null) {
+                showMessage("saved: "+ saved +" bits");
+            } else {
+                showError("reading exception\n " + causeOf(e));
+            }
+            if (progress.isCanceled()) {
+                showError("reading cancelled");
+            }
+        });
         File ret = myFile;
         myFile = null;
         return ret;
@@ -213,6 +217,45 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
         group.add(treeHeaderButton);
         headerMenu.add(treeHeaderButton);
+
+        // create the radio button for sparse format
+        JRadioButtonMenuItem sparseHeaderButton 
+        = new JRadioButtonMenuItem();
+        sparseHeaderButton.setSelected(false);
+        sparseHeaderButton.setAction(new AbstractAction("Use Sparse Format Header(SSF)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_SPARSE;
+            }
+        });
+
+        group.add(sparseHeaderButton);
+        headerMenu.add(sparseHeaderButton);
+
+        // create the radio button for context format
+        JRadioButtonMenuItem contextHeaderButton 
+        = new JRadioButtonMenuItem();
+        contextHeaderButton.setSelected(false);
+        contextHeaderButton.setAction(new AbstractAction("Use Context Format Header(SCX)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_CONTEXT;
+            }
+        });
+
+        group.add(contextHeaderButton);
+        headerMenu.add(contextHeaderButton);
+
+        // create the radio button for LZ77 format
+        JRadioButtonMenuItem lz77HeaderButton 
+        = new JRadioButtonMenuItem();
+        lz77HeaderButton.setSelected(false);
+        lz77HeaderButton.setAction(new AbstractAction("Use LZ77 Format Header(SLZ)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_LZ77;
+            }
+        });
+
+        group.add(lz77HeaderButton);
+        headerMenu.add(lz77HeaderButton);
         return headerMenu;
     }
 
@@ -281,29 +324,21 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
             int pos = path.lastIndexOf(name);
             newName = path.substring(0, pos) + newName;
             final File newFile = new File(newName);
-            ProgressMonitorInputStream temp = null;
-            temp = getMonitorableStream(getFastByteReader(file),"uncompressing bits ...");
-            final ProgressMonitorInputStream stream = temp;
-
-            final ProgressMonitor progress = stream.getProgressMonitor();
+            final InputStream stream = getFastByteReader(file);
+            final ProgressMonitor progress = getMonitor("uncompressing bits ...", file.length());
+            myProgress.watch(IProgressListener.UNCOMPRESS, progress);
             final OutputStream out = new FileOutputStream(newFile);
-            Thread fileReaderThread = new Thread() {
-                public void run() {
-                    try {
-                        myModel.uncompress(stream, out);
-                    } catch (IOException e) {
-
-                        cleanUp(newFile);
-                        showError("could not uncompress\n "+e);
-                        //e.printStackTrace();
-                    }
-                    if (progress.isCanceled()) {
-                        cleanUp(newFile);
-                        showError("reading cancelled");
-                    }
+            myModel.uncompressAsync(stream, out, ourJobs).whenComplete((bits, e) -> {
+                progress.close();
+                if (e != null) {
+                    cleanUp(newFile);
+                    showError("could not uncompress\n "+causeOf(e));
                 }
-            };
-            fileReaderThread.start();
+                if (progress.isCanceled()) {
+                    cleanUp(newFile);
+                    showError("reading cancelled");
+                }
+            });
         } catch (FileNotFoundException e) {
             showError("could not open " + file.getName());
             e.printStackTrace();
@@ -338,35 +373,27 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         final File outputFile = new File(newName);
         try {
             final FileOutputStream out = new FileOutputStream(outputFile);
-            ProgressMonitorInputStream  temp = null;
-            temp = getMonitorableStream(getFastByteReader(myFile), "compressing bits...");
-  
-            final ProgressMonitorInputStream pmis = temp; 
-            final ProgressMonitor progress = pmis.getProgressMonitor();
-            Thread fileWriterThread = new Thread() {
-                public void run() {
-                    try {
-                        while (! myFirstReadingDone){
-                            try {
-                                sleep(100);
-                            } catch (InterruptedException e) {
-                                // what to do?
-                                showError("Trouble in Thread " + e);
-                            }
+            final InputStream in = getFastByteReader(myFile);
+            final ProgressMonitor progress = getMonitor("compressing bits...", myFile.length());
+            myProgress.watch(IProgressListener.COMPRESS, progress);
+            // compress as soon as the first reading is done, or not at all if it failed
+            myFirstReading.thenCompose(saved -> myModel.compressAsync(in, out, myForce, ourJobs))
+                .whenComplete((bits, e) -> {
+                    progress.close();
+                    if (e != null) {
+                        showError("compression exception\n " + causeOf(e));
+                        try {
+                            out.close();
+                        } catch (IOException closing) {
+                            // the file is deleted next
                         }
-                        myModel.compress(pmis, out, myForce);
-                    } catch (IOException e) {
-                        showError("compression exception\n " + e);
                         cleanUp(outputFile);
-                        //e.printStackTrace();
                     }
                     if (progress.isCanceled()) {
                         showError("compression cancelled");
                         cleanUp(outputFile);
                     }
-                }
-            };
-            fileWriterThread.start();
+                });
         } catch (FileNotFoundException e) {
             showError("could not open " + outputFile.getName());
             e.printStackTrace();
@@ -374,6 +401,14 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         myFile = null;
     }
 
+    // Get the exception a job failed with, without the wrapping of a chained future.
+    private static Throwable causeOf(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+
     private void cleanUp(File f) {
         if (!f.delete()) {
             showError("trouble deleting " + f.getName());
@@ -382,40 +417,33 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         }
     }
 
-    private ProgressMonitorInputStream getMonitorableStream(InputStream stream, String message) {
-
-
-        final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                this, message, stream);
-
-        ProgressMonitor progress = pmis.getProgressMonitor();
+    private ProgressMonitor getMonitor(String message, long length) {
+        ProgressMonitor progress = new ProgressMonitor(this, message, null, 0,
+                (int) Math.min(length, Integer.MAX_VALUE));
         progress.setMillisToDecideToPopup(1);
         progress.setMillisToPopup(1);
-
-        return pmis;
+        return progress;
     }
 
+    /*
+     * Shows the progress the model reports for each phase in the
+     * ProgressMonitor made for that phase, and stops the phase when its
+     * monitor is cancelled.
+     */
+    private static class MonitorListener implements IProgressListener {
+        private final Map<String, ProgressMonitor> monitors = new ConcurrentHashMap<>();
 
+        void watch(String phase, ProgressMonitor monitor) {
+            monitors.put(phase, monitor);
+        }
 
-    private ProgressMonitorInputStream getMonitorableStream(File file,
-            String message) {
-        try {
-            FileInputStream stream = new FileInputStream(file);
-            if (stream == null){
-                System.out.println("null on "+file.getCanonicalPath());
+        public boolean progress(String phase, long done, long total) {
+            ProgressMonitor monitor = monitors.get(phase);
+            if (monitor == null) {
+                return true;
             }
-            final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                    this, message, stream);
-
-            ProgressMonitor progress = pmis.getProgressMonitor();
-            progress.setMillisToDecideToPopup(1);
-            progress.setMillisToPopup(1);
-
-            return pmis;
-        } catch (IOException e) {
-            showError("could not open " + file.getName());
-            e.printStackTrace();
-            return null;
+            monitor.setProgress((int) Math.min(done, Integer.MAX_VALUE));
+            return !monitor.isCanceled();
         }
     }
 
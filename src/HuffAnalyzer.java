@@ -0,0 +1,319 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Works out how well data would compress without compressing it, so a
+ * caller can choose to Huffman code it, store it as it is or give it to
+ * another codec.
+ * <p>
+ * One pass over the data counts each byte and each pair of bytes, with a
+ * plain loop over a byte array and no bit streams. From the counts come the
+ * order-0 Shannon entropy, the order-1 entropy of each byte given the one
+ * before it, and, through the same CompressionPlan built from counts that
+ * SimpleHuffProcessor compresses with, the exact size of the file each of
+ * the Count, Tree and Sparse Formats would write and the longest code each
+ * would use. Nothing is coded or written.
+ * <p>
+ * An analyzer keeps its count arrays between calls, so it should be reused
+ * rather than made per object. Only the pair counts of the contexts that
+ * occurred are cleared and summed, so a small object costs little more
+ * than its own bytes. It is not thread-safe.
+ * <p>
+ * Usage: java HuffAnalyzer file ...
+ */
+public class HuffAnalyzer implements IHuffConstants {
+
+    /**
+     * The header formats sizes are reported for, the ones planned from
+     * byte counts alone.
+     */
+    public static final int[] FORMATS = {STORE_COUNTS, STORE_TREE, STORE_SPARSE};
+
+    private static final String[] NAMES = {"counts", "tree", "sparse"};
+
+    /**
+     * The most bytes analyzed from a stream, so no count can overflow.
+     */
+    public static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final int[] counts = new int[ALPH_SIZE];
+    // pairs[(previous << BITS_PER_WORD) | value]
+    private final int[] pairs = new int[ALPH_SIZE * ALPH_SIZE];
+    private byte[] buffer;
+
+    /**
+     * What analyze found out about some data.
+     */
+    public static class Report {
+        private final long bytes;
+        private final double entropy;
+        private final double order1Entropy;
+        private final long[] compressedBits = new long[FORMATS.length];
+        private final int[] maxCodeLengths = new int[FORMATS.length];
+
+        Report(long bytes, double entropy, double order1Entropy) {
+            this.bytes = bytes;
+            this.entropy = entropy;
+            this.order1Entropy = order1Entropy;
+        }
+
+        /**
+         * Get the number of bytes analyzed.
+         *
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the order-0 Shannon entropy of the data, the fewest bits per
+         * byte any code that ignores context could average.
+         *
+         * @return the entropy in bits per byte, from 0 to 8
+         */
+        public double getEntropy() {
+            return entropy;
+        }
+
+        /**
+         * Get the order-1 entropy of the data, the fewest bits per byte a
+         * code picked by the byte before could average. It is at most
+         * getEntropy, and gives an idea of what the Context Format or a
+         * heavier codec could gain, without their header costs.
+         *
+         * @return the entropy in bits per byte, from 0 to 8
+         */
+        public double getOrder1Entropy() {
+            return order1Entropy;
+        }
+
+        /**
+         * Get the exact size of the file compressing the data would write.
+         *
+         * @param format one of FORMATS
+         * @return the size in bytes, header included, or 0 for no data
+         */
+        public long getCompressedBytes(int format) {
+            return (compressedBits[indexOf(format)] + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        }
+
+        /**
+         * Get the longest code a format would use for the data.
+         *
+         * @param format one of FORMATS
+         * @return the length in bits
+         */
+        public int getMaxCodeLength(int format) {
+            return maxCodeLengths[indexOf(format)];
+        }
+
+        /**
+         * Get the format that would write the smallest file.
+         *
+         * @return one of FORMATS
+         */
+        public int getBestFormat() {
+            int best = 0;
+            for (int i = 1; i < FORMATS.length; i++) {
+                if (compressedBits[i] < compressedBits[best]) {
+                    best = i;
+                }
+            }
+            return FORMATS[best];
+        }
+
+        /**
+         * Get whether compressing in the best format would make the data
+         * smaller than storing it as it is.
+         *
+         * @return true if compressing saves space
+         */
+        public boolean isCompressible() {
+            return getCompressedBytes(getBestFormat()) < bytes;
+        }
+
+        private static int indexOf(int format) {
+            for (int i = 0; i < FORMATS.length; i++) {
+                if (FORMATS[i] == format) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Format " + format + " is not analyzed.");
+        }
+
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(String.format("%d bytes, entropy %.3f, order-1 entropy %.3f bits per byte",
+                    bytes, entropy, order1Entropy));
+            for (int i = 0; i < FORMATS.length; i++) {
+                result.append(String.format(", %s %d bytes (max code %d)", NAMES[i],
+                        getCompressedBytes(FORMATS[i]), maxCodeLengths[i]));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Analyzes bytes held in memory.
+     *
+     * @param data the array holding the data
+     * @param off  the index of the first byte
+     * @param len  the number of bytes
+     * @return what was found
+     */
+    public Report analyze(byte[] data, int off, int len) {
+        clear();
+        count(data, off, len, 0);
+        return report(len);
+    }
+
+    /**
+     * Analyzes a stream, or its first limit bytes as a sample. At most
+     * MAX_BYTES are read. The stream is not closed.
+     *
+     * @param in    the data
+     * @param limit the most bytes to read, Long.MAX_VALUE for as many as
+     *              MAX_BYTES
+     * @return what was found about the bytes read
+     * @throws IOException if in can not be read
+     */
+    public Report analyze(InputStream in, long limit) throws IOException {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        clear();
+        limit = Math.min(limit, MAX_BYTES);
+        long total = 0;
+        int previous = 0;
+        while (total < limit) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+            if (n < 0) {
+                break;
+            }
+            if (n > 0) {
+                previous = count(buffer, 0, n, previous);
+                total += n;
+            }
+        }
+        return report(total);
+    }
+
+    // Clears the counts of the last analysis, and the pair counts of only
+    // the contexts it saw.
+    private void clear() {
+        for (int previous = 0; previous < ALPH_SIZE; previous++) {
+            if (seen(previous)) {
+                int off = previous << BITS_PER_WORD;
+                Arrays.fill(pairs, off, off + ALPH_SIZE, 0);
+            }
+        }
+        Arrays.fill(counts, 0);
+    }
+
+    // Can pairs have counts in the context of previous. Context 0 is that
+    // of the first byte, and any other is a byte that was counted.
+    private boolean seen(int previous) {
+        return previous == 0 || counts[previous] > 0;
+    }
+
+    // Counts each byte and each pair, the first byte following a 0 as in
+    // the Context Format. Returns the last byte counted.
+    private int count(byte[] data, int off, int len, int previous) {
+        int[] counts = this.counts;
+        int[] pairs = this.pairs;
+        for (int i = off; i < off + len; i++) {
+            int value = data[i] & 0xff;
+            counts[value]++;
+            pairs[(previous << BITS_PER_WORD) | value]++;
+            previous = value;
+        }
+        return previous;
+    }
+
+    private Report report(long bytes) {
+        Report report = new Report(bytes, entropy(counts, 0, bytes), order1Entropy(bytes));
+        // a tree needs a value besides PSEUDO_EOF, so empty data has no sizes
+        if (bytes == 0) {
+            return report;
+        }
+        // the Count and Tree Formats code with the same tree and differ
+        // only in the header, so one plan gives both
+        CompressionPlan tree = new CompressionPlan(counts, STORE_TREE);
+        CompressionPlan sparse = new CompressionPlan(counts, STORE_SPARSE);
+        report.compressedBits[0] = tree.getCompressedBits() - tree.getHeaderBits()
+                + ALPH_SIZE * BITS_PER_INT;
+        report.compressedBits[1] = tree.getCompressedBits();
+        report.compressedBits[2] = sparse.getCompressedBits();
+        report.maxCodeLengths[0] = report.maxCodeLengths[1] = maxLength(tree.getCodeTable());
+        report.maxCodeLengths[2] = maxLength(sparse.getCodeTable());
+        return report;
+    }
+
+    private static int maxLength(CodeTable table) {
+        int max = 0;
+        for (int s = 0; s <= PSEUDO_EOF; s++) {
+            max = Math.max(max, table.getLength(s));
+        }
+        return max;
+    }
+
+    // The entropy of the ALPH_SIZE counts starting at off, which add up
+    // to total, in bits per value.
+    private static double entropy(int[] counts, int off, long total) {
+        if (total == 0) {
+            return 0;
+        }
+        double bits = 0;
+        for (int i = off; i < off + ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                bits -= counts[i] * Math.log((double) counts[i] / total);
+            }
+        }
+        return bits / total / Math.log(2);
+    }
+
+    // The entropy of each byte given the one before, weighting the entropy
+    // of each context by how often it occurs.
+    private double order1Entropy(long bytes) {
+        if (bytes == 0) {
+            return 0;
+        }
+        double bits = 0;
+        for (int previous = 0; previous < ALPH_SIZE; previous++) {
+            if (!seen(previous)) {
+                continue;
+            }
+            int off = previous << BITS_PER_WORD;
+            long total = 0;
+            for (int i = off; i < off + ALPH_SIZE; i++) {
+                total += pairs[i];
+            }
+            bits += entropy(pairs, off, total) * total;
+        }
+        return bits / bytes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java HuffAnalyzer file ...");
+            System.exit(2);
+        }
+        HuffAnalyzer analyzer = new HuffAnalyzer();
+        for (String name : args) {
+            try (InputStream in = new FileInputStream(name)) {
+                long start = System.nanoTime();
+                Report report = analyzer.analyze(in, Long.MAX_VALUE);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.println(name + ": " + report);
+                System.out.printf("  best %s, %s, analyzed in %.3f seconds\n",
+                        NAMES[Report.indexOf(report.getBestFormat())],
+                        report.isCompressible() ? "compressible" : "store as is", seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Reads an archive of many files written by HuffArchiveWriter.
+ * <p>
+ * An archive starts with MAGIC_NUMBER and STORE_ARCHIVE. Each entry is a
+ * compressed file as written by SimpleHuffProcessor, one after another.
+ * The central directory follows the entries and holds the dictionaries of
+ * solid groups and the name, offset and sizes of each entry. The archive
+ * ends with the offset of the directory, MAGIC_NUMBER and STORE_ARCHIVE, so
+ * opening one reads the end of the file and then the directory, and an
+ * entry is extracted by reading only its own bytes.
+ * <p>
+ * Entries are read with positional reads of one FileChannel, so any number
+ * of threads may extract at once, and extractAll extracts in parallel.
+ * <p>
+ * Usage: java HuffArchive -c archive [-solid] file ... to create an
+ * archive, java HuffArchive -l archive to list one and java HuffArchive -x
+ * archive [dir [name ...]] to extract all or some of its entries.
+ */
+public class HuffArchive implements Closeable, IHuffConstants {
+
+    /**
+     * Files smaller than this are put in the solid group when the
+     * command line is given -solid.
+     */
+    public static final int SOLID_LIMIT = 1 << 16;
+
+    // the directory offset, MAGIC_NUMBER and STORE_ARCHIVE
+    private static final int TRAILER_BYTES = 16;
+
+    private final FileChannel channel;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> byName = new HashMap<>();
+    private final HuffDictionaryRegistry dictionaries = new HuffDictionaryRegistry();
+    private final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+
+    /**
+     * An entry of an archive.
+     */
+    public static class Entry {
+        private final String name;
+        final long offset;
+        private final long compressedSize;
+        private final long size;
+
+        Entry(String name, long offset, long compressedSize, long size) {
+            this.name = name;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        /**
+         * Get the name of this entry.
+         *
+         * @return the name, with / between directories
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the size of this entry once extracted.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Get the size of this entry in the archive.
+         *
+         * @return the size in bytes, header included
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+
+    /**
+     * Opens an archive and reads its central directory.
+     *
+     * @param file the archive file
+     * @throws IOException if file can not be read or is not an archive
+     */
+    public HuffArchive(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            readDirectory(file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        huffer.setDictionaries(dictionaries);
+    }
+
+    private void readDirectory(File file) throws IOException {
+        long size = channel.size();
+        if (size < 2 * BITS_PER_INT / 8 + TRAILER_BYTES) {
+            throw new IOException(file + " is not an archive.");
+        }
+        ByteBuffer trailer = readFully(size - TRAILER_BYTES, TRAILER_BYTES);
+        long directory = trailer.getLong();
+        if (trailer.getInt() != MAGIC_NUMBER || trailer.getInt() != STORE_ARCHIVE) {
+            throw new IOException(file + " is not an archive.");
+        }
+        if (directory < 2 * BITS_PER_INT / 8 || directory > size - TRAILER_BYTES
+                || size - TRAILER_BYTES - directory > Integer.MAX_VALUE) {
+            throw new IOException("Invalid directory offset in " + file + ".");
+        }
+        ByteBuffer bytes = readFully(directory, (int) (size - TRAILER_BYTES - directory));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.array()));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Invalid dictionary length in " + file + ".");
+            }
+            byte[] dictionary = new byte[length];
+            in.readFully(dictionary);
+            dictionaries.register(HuffDictionary.read(new ByteArrayInputStream(dictionary)));
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+            if (entry.offset < 0 || entry.compressedSize < 0
+                    || entry.offset + entry.compressedSize > directory) {
+                throw new IOException("Invalid entry " + entry.name + " in " + file + ".");
+            }
+            entries.add(entry);
+            byName.put(entry.name, entry);
+        }
+    }
+
+    // Reads length bytes at position into a new buffer ready to be read.
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive is truncated.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Get the entries of this archive, in the order they were added.
+     *
+     * @return the entries, which can not be changed
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Get an entry by name.
+     *
+     * @param name the name of the entry
+     * @return the entry, or null if there is none with that name
+     */
+    public Entry getEntry(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Uncompresses an entry to out, which is closed when done.
+     *
+     * @param entry an entry of this archive
+     * @param out   where the data is written
+     * @throws IOException if the entry is damaged or out can not be written
+     */
+    public void extract(Entry entry, OutputStream out) throws IOException {
+        huffer.uncompress(new BufferedInputStream(new EntryInputStream(channel, entry)), out);
+    }
+
+    /**
+     * Extracts every entry to files under a directory, many at once on the
+     * common ForkJoinPool.
+     *
+     * @param dir the directory, which is created if needed
+     * @return the number of entries extracted
+     * @throws IOException if an entry is damaged, names a file outside dir,
+     *                     or can not be written
+     */
+    public int extractAll(File dir) throws IOException {
+        try {
+            entries.parallelStream().forEach(entry -> {
+                try {
+                    extract(entry, dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return entries.size();
+    }
+
+    /**
+     * Extracts an entry to a file under a directory.
+     *
+     * @param entry an entry of this archive
+     * @param dir   the directory the name of the entry is taken from
+     * @return the file written
+     * @throws IOException if the entry is damaged, names a file outside dir,
+     *                     or can not be written
+     */
+    public File extract(Entry entry, File dir) throws IOException {
+        File target = new File(dir, entry.name);
+        String root = dir.getCanonicalPath() + File.separator;
+        if (!target.getCanonicalPath().startsWith(root)) {
+            throw new IOException("Entry " + entry.name + " is outside " + dir + ".");
+        }
+        target.getParentFile().mkdirs();
+        extract(entry, new BufferedOutputStream(new FileOutputStream(target)));
+        return target;
+    }
+
+    /**
+     * Closes the archive file.
+     *
+     * @throws IOException if it can not be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+     * Reads the bytes of one entry with positional reads, so streams of
+     * many entries can read the same channel at once.
+     */
+    private static class EntryInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        EntryInputStream(FileChannel channel, Entry entry) {
+            this.channel = channel;
+            position = entry.offset;
+            end = entry.offset + entry.compressedSize;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            len = (int) Math.min(len, end - position);
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n < 0) {
+                throw new IOException("Archive is truncated.");
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2 && args[0].equals("-c")) {
+            create(args);
+        } else if (args.length == 2 && args[0].equals("-l")) {
+            try (HuffArchive archive = new HuffArchive(new File(args[1]))) {
+                for (Entry entry : archive.getEntries()) {
+                    System.out.printf("%12d %12d  %s\n", entry.getSize(),
+                            entry.getCompressedSize(), entry.getName());
+                }
+            }
+        } else if (args.length > 1 && args[0].equals("-x")) {
+            File dir = new File(args.length > 2 ? args[2] : ".");
+            try (HuffArchive archive = new HuffArchive(new File(args[1]))) {
+                long start = System.nanoTime();
+                int count = 0;
+                if (args.length > 3) {
+                    for (int i = 3; i < args.length; i++) {
+                        Entry entry = archive.getEntry(args[i]);
+                        if (entry == null) {
+                            System.err.println("No entry " + args[i]);
+                            System.exit(1);
+                        }
+                        archive.extract(entry, dir);
+                        count++;
+                    }
+                } else {
+                    count = archive.extractAll(dir);
+                }
+                System.out.printf("extracted %d entries in %.3f seconds\n", count,
+                        (System.nanoTime() - start) / 1e9);
+            }
+        } else {
+            System.err.println("Usage: java HuffArchive -c archive [-solid] file ...\n"
+                    + "       java HuffArchive -l archive\n"
+                    + "       java HuffArchive -x archive [dir [name ...]]");
+            System.exit(2);
+        }
+    }
+
+    // Creates an archive of the files and directories named on the
+    // command line. Entries are named from each argument down.
+    private static void create(String[] args) throws IOException {
+        boolean solid = args[2].equals("-solid");
+        List<String> groupNames = new ArrayList<>();
+        List<byte[]> group = new ArrayList<>();
+        try (HuffArchiveWriter writer = new HuffArchiveWriter(new File(args[1]), STORE_SPARSE)) {
+            for (int i = solid ? 3 : 2; i < args.length; i++) {
+                Path root = new File(args[i]).toPath();
+                Path base = root.getParent() == null ? root.getFileSystem().getPath("")
+                        : root.getParent();
+                try (Stream<Path> paths = Files.walk(root)) {
+                    for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                        String name = base.relativize(path).toString()
+                                .replace(File.separatorChar, '/');
+                        if (solid && Files.size(path) < SOLID_LIMIT) {
+                            groupNames.add(name);
+                            group.add(Files.readAllBytes(path));
+                        } else {
+                            writer.add(name, path.toFile());
+                        }
+                    }
+                }
+            }
+            if (!group.isEmpty()) {
+                writer.addSolid(groupNames, group);
+            }
+            System.out.println("archived " + writer.getEntryCount() + " files");
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a HuffArchive. Each file added is compressed into the archive as
+ * it is added, and the central directory is written by close.
+ * <p>
+ * Small files can be added as a solid group. A HuffDictionary is trained
+ * on the files of the group and stored once in the archive, and each file
+ * is compressed in the Dictionary Format, so it carries the id of the
+ * dictionary rather than a table of its own.
+ */
+public class HuffArchiveWriter implements Closeable, IHuffConstants {
+
+    private final ArchiveOutputStream position;
+    private final DataOutputStream out;
+    private final int headerFormat;
+    private final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+    private final List<HuffArchive.Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Map<Integer, HuffDictionary> dictionaries = new LinkedHashMap<>();
+    private boolean closed;
+
+    /**
+     * Creates an archive, replacing file if it exists.
+     *
+     * @param file         the archive file
+     * @param headerFormat the header format files not in a solid group are
+     *                     compressed with
+     * @throws IOException if file can not be written
+     */
+    public HuffArchiveWriter(File file, int headerFormat) throws IOException {
+        this.headerFormat = headerFormat;
+        position = new ArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out = new DataOutputStream(position);
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(STORE_ARCHIVE);
+    }
+
+    /**
+     * Set whether entries added after this call end with a checksum of
+     * their data, as SimpleHuffProcessor.setChecksum.
+     *
+     * @param checksummed true to add a checksum to each entry
+     */
+    public void setChecksum(boolean checksummed) {
+        huffer.setChecksum(checksummed);
+    }
+
+    /**
+     * Adds a file, reading it twice: once to plan it and once to compress it.
+     *
+     * @param name the name of the entry
+     * @param file the file
+     * @throws IOException if file can not be read or the archive written
+     */
+    public void add(String name, File file) throws IOException {
+        checkName(name);
+        CompressionPlan plan;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            plan = huffer.plan(in, headerFormat);
+        }
+        addEntry(name, plan, new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Adds data held in memory.
+     *
+     * @param name the name of the entry
+     * @param data the data
+     * @throws IOException if the archive can not be written
+     */
+    public void add(String name, byte[] data) throws IOException {
+        checkName(name);
+        CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data), headerFormat);
+        addEntry(name, plan, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Adds files as a solid group sharing one trained table.
+     *
+     * @param groupNames the names of the entries
+     * @param data       the data of each entry, in the same order
+     * @throws IOException if the archive can not be written
+     */
+    public void addSolid(List<String> groupNames, List<byte[]> data) throws IOException {
+        if (groupNames.size() != data.size()) {
+            throw new IllegalArgumentException("a name is needed for each entry");
+        }
+        for (String name : groupNames) {
+            checkName(name);
+        }
+        HuffDictionary dictionary = HuffDictionary.train(data);
+        dictionaries.putIfAbsent(dictionary.getId(), dictionary);
+        huffer.setDictionary(dictionary);
+        try {
+            for (int i = 0; i < data.size(); i++) {
+                CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data.get(i)),
+                        STORE_DICTIONARY);
+                addEntry(groupNames.get(i), plan, new ByteArrayInputStream(data.get(i)));
+            }
+        } finally {
+            huffer.setDictionary(null);
+        }
+    }
+
+    /**
+     * Get the number of entries added so far.
+     *
+     * @return the number of entries
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the central directory and closes the archive. The directory
+     * holds the dictionaries of solid groups and the name, offset and sizes
+     * of each entry, and is followed by its offset so a reader finds it
+     * from the end of the file.
+     *
+     * @throws IOException if the archive can not be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long directory = position.count;
+            out.writeInt(dictionaries.size());
+            for (HuffDictionary dictionary : dictionaries.values()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                dictionary.write(bytes);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+            out.writeInt(entries.size());
+            for (HuffArchive.Entry entry : entries) {
+                out.writeUTF(entry.getName());
+                out.writeLong(entry.offset);
+                out.writeLong(entry.getCompressedSize());
+                out.writeLong(entry.getSize());
+            }
+            out.writeLong(directory);
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(STORE_ARCHIVE);
+        } finally {
+            position.finish();
+        }
+    }
+
+    private void checkName(String name) {
+        if (closed) {
+            throw new IllegalStateException("archive is closed");
+        }
+        if (name.isEmpty() || !names.add(name)) {
+            throw new IllegalArgumentException("Duplicate or empty entry name: " + name);
+        }
+    }
+
+    // Compresses in at the end of the archive and records where it went
+    // and how many bytes were read from in.
+    private void addEntry(String name, CompressionPlan plan, InputStream in) throws IOException {
+        long offset = position.count;
+        SimpleHuffProcessor.CountingInputStream counted =
+                new SimpleHuffProcessor.CountingInputStream(in);
+        huffer.compress(plan, counted, position, true);
+        entries.add(new HuffArchive.Entry(name, offset, position.count - offset, counted.count));
+    }
+
+    /*
+     * Counts the bytes written to the archive, and stays open when an entry
+     * is closed by compress.
+     */
+    private static class ArchiveOutputStream extends FilterOutputStream {
+        private long count;
+
+        ArchiveOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+
+        // Closes the archive file.
+        void finish() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,534 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless batch compressor used by HuffMark. Walks a directory tree and
+ * compresses every file in it to a .hf file next to it, on a work-stealing
+ * ForkJoinPool so idle threads take over work queued by busy ones.
+ * <p>
+ * Files of at least SPLIT_SIZE bytes are cut into CHUNK_SIZE pieces that are
+ * counted and coded by different threads, then joined bit by bit, so the
+ * output is the same as compressing the file in one piece. Only the Count,
+ * Tree and Sparse Formats can be split, files for other formats are
+ * compressed whole. Files under SMALL_FILE bytes are grouped into batches of
+ * about BATCH_BYTES so each task does enough work to be worth scheduling.
+ * <p>
+ * With a HuffBatchIndex, files that have not changed since the last run are
+ * skipped, and files with the same contents as one compressed before get a
+ * copy of its output.
+ */
+public class HuffBatch {
+
+    /**
+     * Files at least this large are split across threads.
+     */
+    public static final int SPLIT_SIZE = 1 << 22;
+
+    /**
+     * The size of the pieces large files are split into.
+     */
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Files smaller than this are compressed in batches.
+     */
+    public static final int SMALL_FILE = 1 << 16;
+
+    /**
+     * The number of bytes of small files in one batch.
+     */
+    public static final int BATCH_BYTES = 1 << 20;
+
+    private static final String SUFFIX = ".hf";
+    // largest file that fits in one array
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE - 8;
+
+    private final ForkJoinPool pool;
+    private final int headerFormat;
+    private final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder totalFiles = new LongAdder();
+    private final LongAdder totalFailures = new LongAdder();
+    private final LongAdder totalUnchanged = new LongAdder();
+    private final LongAdder totalReused = new LongAdder();
+    private final LongAdder totalUncompressedBytes = new LongAdder();
+    private final LongAdder totalCompressedBytes = new LongAdder();
+    private final LongAdder totalCpuNanos = new LongAdder();
+    private long totalWallNanos;
+    private volatile HuffBatchIndex index;
+
+    /**
+     * Creates a batch compressor.
+     *
+     * @param headerFormat the header format to compress with
+     * @param parallelism  the number of threads to compress on
+     */
+    public HuffBatch(int headerFormat, int parallelism) {
+        this.headerFormat = headerFormat;
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Compresses every file under root, except .hf files, and adds them to
+     * the totals. Files that can not be compressed are reported and skipped.
+     *
+     * @param root the directory to compress
+     */
+    public void run(File root) {
+        long start = System.nanoTime();
+        pool.invoke(new DirectoryTask(root));
+        HuffBatchIndex current = index;
+        if (current != null) {
+            try {
+                current.save();
+            } catch (IOException e) {
+                fail(current.getFile(), e);
+            }
+        }
+        totalWallNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Set the index that lets runs skip files that have not changed. It is
+     * saved at the end of each run.
+     *
+     * @param index the index, or null to compress every file
+     */
+    public void setIndex(HuffBatchIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Set the listener told how each file compressed whole is going. Files
+     * that are split report only through the totals.
+     *
+     * @param listener the listener, called from many threads at once, or null
+     */
+    public void setProgressListener(IProgressListener listener) {
+        huffer.setProgressListener(listener);
+    }
+
+    /**
+     * Stops the threads of this batch compressor.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Prints the totals of all runs the way HuffMark does, with the time
+     * taken and the throughput by wall-clock and by CPU time.
+     */
+    public void printTotals() {
+        long read = totalUncompressedBytes.sum();
+        long compressed = totalCompressedBytes.sum();
+        double wall = totalWallNanos / 1e9;
+        double cpu = totalCpuNanos.sum() / 1e9;
+        System.out.println("--------");
+        System.out.printf("files compressed: %d, failed: %d\n", totalFiles.sum(),
+                totalFailures.sum());
+        if (index != null) {
+            System.out.printf("files unchanged: %d, reused: %d\n", totalUnchanged.sum(),
+                    totalReused.sum());
+        }
+        System.out.printf("total bytes read: %d\n", read);
+        System.out.printf("total compressed bytes %d\n", compressed);
+        System.out.printf("total percent compression %.3f\n",
+                read == 0 ? 0.0 : 100.0 * (1.0 - 1.0 * compressed / read));
+        System.out.printf("compression time: %.3f\n", wall);
+        System.out.printf("cpu time: %.3f on %d threads\n", cpu, pool.getParallelism());
+        System.out.printf("throughput: %.3f MB/s wall-clock, %.3f MB/s cpu\n",
+                megabytesPerSecond(read, wall), megabytesPerSecond(read, cpu));
+    }
+
+    private static double megabytesPerSecond(long bytes, double seconds) {
+        return seconds == 0 ? 0.0 : bytes / seconds / (1 << 20);
+    }
+
+    /**
+     * Get the number of bytes read from all files compressed so far.
+     *
+     * @return the total size of the files compressed
+     */
+    public long getTotalUncompressedBytes() {
+        return totalUncompressedBytes.sum();
+    }
+
+    /**
+     * Get the number of bytes written to all .hf files so far.
+     *
+     * @return the total size of the compressed files
+     */
+    public long getTotalCompressedBytes() {
+        return totalCompressedBytes.sum();
+    }
+
+    // Can files in the format of this batch be counted and coded in pieces.
+    private boolean canSplit() {
+        return headerFormat == IHuffConstants.STORE_COUNTS
+                || headerFormat == IHuffConstants.STORE_TREE
+                || headerFormat == IHuffConstants.STORE_SPARSE;
+    }
+
+    private long cpuTime() {
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    // Adds the CPU time since start to the total. Only work done by this
+    // thread between the two calls is counted, so time spent running other
+    // tasks while waiting in invokeAll must be left out.
+    private void addCpuTime(long start) {
+        totalCpuNanos.add(cpuTime() - start);
+    }
+
+    private static File getCompressedFile(File f) {
+        return new File(f.getParentFile(), f.getName() + SUFFIX);
+    }
+
+    // Is f the index or the file it is saved through.
+    private boolean isIndex(File f) {
+        HuffBatchIndex current = index;
+        return current != null && (f.equals(current.getFile())
+                || f.getPath().equals(current.getFile().getPath() + ".tmp"));
+    }
+
+    // The hash of the contents of a file, or null if there is no index to
+    // record it in.
+    private String hash(byte[] data) {
+        return index == null ? null : HuffBatchIndex.hash(data);
+    }
+
+    // Copies the output of a file with the same contents as f, if the index
+    // has one. Returns true if f needs no compressing.
+    private boolean reuse(File f, long size, long modified, String hash) throws IOException {
+        HuffBatchIndex current = index;
+        if (current == null || hash == null) {
+            return false;
+        }
+        File outFile = getCompressedFile(f);
+        if (current.reuse(hash, outFile)) {
+            current.record(f, size, modified, hash, outFile);
+            totalReused.increment();
+            report(f, outFile.length(), System.nanoTime());
+            return true;
+        }
+        return false;
+    }
+
+    // Records a file just compressed in the index, if there is one.
+    private void recordCompressed(File f, long size, long modified, String hash) {
+        HuffBatchIndex current = index;
+        if (current != null && hash != null) {
+            current.record(f, size, modified, hash, getCompressedFile(f));
+        }
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        if (f.length() > MAX_FILE_SIZE) {
+            throw new IOException(f + " is too large to compress.");
+        }
+        return Files.readAllBytes(f.toPath());
+    }
+
+    private void report(File f, long compressedLength, long startNanos) {
+        double time = (System.nanoTime() - startNanos) / 1e9;
+        totalFiles.increment();
+        totalUncompressedBytes.add(f.length());
+        totalCompressedBytes.add(compressedLength);
+        System.out.printf("%s from\t %d to\t %d in\t %.3f\n", f.getName(), f.length(),
+                compressedLength, time);
+    }
+
+    private void fail(File f, Exception e) {
+        totalFailures.increment();
+        System.err.println("trouble compressing " + f + ": " + e.getMessage());
+    }
+
+    /*
+     * Lists a directory, forking a task for each subdirectory, each large
+     * file and each batch of small files.
+     */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+
+        DirectoryTask(File dir) {
+            this.dir = dir;
+        }
+
+        protected void compute() {
+            long cpu = cpuTime();
+            File[] list = dir.listFiles();
+            if (list == null) {
+                fail(dir, new IOException("can not list directory"));
+                addCpuTime(cpu);
+                return;
+            }
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<File> batch = new ArrayList<>();
+            long batchBytes = 0;
+            HuffBatchIndex current = index;
+            for (File f : list) {
+                if (f.isDirectory()) {
+                    tasks.add(new DirectoryTask(f));
+                } else if (f.getName().endsWith(SUFFIX) || isIndex(f)) {
+                    // don't read .hf files!
+                } else if (current != null && current.isUnchanged(f, getCompressedFile(f))) {
+                    totalUnchanged.increment();
+                } else if (f.length() >= SPLIT_SIZE && canSplit()) {
+                    tasks.add(new SplitFileTask(f));
+                } else if (f.length() >= SMALL_FILE) {
+                    tasks.add(new BatchTask(List.of(f)));
+                } else {
+                    batch.add(f);
+                    batchBytes += f.length();
+                    if (batchBytes >= BATCH_BYTES) {
+                        tasks.add(new BatchTask(batch));
+                        batch = new ArrayList<>();
+                        batchBytes = 0;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(new BatchTask(batch));
+            }
+            addCpuTime(cpu);
+            invokeAll(tasks);
+        }
+    }
+
+    /*
+     * Compresses files one after another, each in one piece.
+     */
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+
+        BatchTask(List<File> files) {
+            this.files = files;
+        }
+
+        protected void compute() {
+            long cpu = cpuTime();
+            for (File f : files) {
+                long start = System.nanoTime();
+                try {
+                    long size = f.length();
+                    long modified = f.lastModified();
+                    byte[] data = readFile(f);
+                    String hash = hash(data);
+                    if (reuse(f, size, modified, hash)) {
+                        continue;
+                    }
+                    CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data),
+                            headerFormat);
+                    File outFile = getCompressedFile(f);
+                    try (OutputStream out = new BufferedOutputStream(
+                            new FileOutputStream(outFile))) {
+                        huffer.compress(plan, new ByteArrayInputStream(data), out, true);
+                    } catch (IOException | RuntimeException e) {
+                        // don't leave a partial .hf file behind
+                        outFile.delete();
+                        throw e;
+                    }
+                    recordCompressed(f, size, modified, hash);
+                    report(f, outFile.length(), start);
+                } catch (IOException | RuntimeException e) {
+                    fail(f, e);
+                }
+            }
+            addCpuTime(cpu);
+        }
+    }
+
+    /*
+     * Compresses one large file by counting and coding its pieces in
+     * separate tasks.
+     */
+    private class SplitFileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+
+        SplitFileTask(File file) {
+            this.file = file;
+        }
+
+        protected void compute() {
+            long start = System.nanoTime();
+            long cpu = cpuTime();
+            try {
+                long size = file.length();
+                long modified = file.lastModified();
+                byte[] data = readFile(file);
+                String hash = hash(data);
+                if (reuse(file, size, modified, hash)) {
+                    addCpuTime(cpu);
+                    return;
+                }
+                List<ChunkTask> chunks = new ArrayList<>();
+                for (int from = 0; from < data.length; from += CHUNK_SIZE) {
+                    chunks.add(new ChunkTask(data, from, Math.min(data.length, from + CHUNK_SIZE)));
+                }
+                addCpuTime(cpu);
+                invokeAll(chunks);
+
+                cpu = cpuTime();
+                int[] counts = new int[IHuffConstants.ALPH_SIZE];
+                for (ChunkTask chunk : chunks) {
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] += chunk.counts[i];
+                    }
+                }
+                CompressionPlan plan = new CompressionPlan(counts, headerFormat);
+                List<ChunkTask> coders = new ArrayList<>();
+                for (ChunkTask chunk : chunks) {
+                    coders.add(chunk.coder(plan));
+                }
+                addCpuTime(cpu);
+                invokeAll(coders);
+
+                cpu = cpuTime();
+                File outFile = getCompressedFile(file);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
+                    BitJoiner joiner = new BitJoiner(out);
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    BitOutputStream bits = new BitOutputStream(buffer);
+                    int headerBits = IHuffConstants.BITS_PER_INT * 2 + plan.writeHeader(bits);
+                    bits.flush();
+                    joiner.append(buffer.toByteArray(), headerBits);
+                    for (ChunkTask coder : coders) {
+                        joiner.append(coder.coded, coder.codedBits);
+                    }
+                    buffer.reset();
+                    int endBits = plan.writeEnd(bits);
+                    bits.flush();
+                    joiner.append(buffer.toByteArray(), endBits);
+                    joiner.finish();
+                } catch (IOException | RuntimeException e) {
+                    outFile.delete();
+                    throw e;
+                }
+                recordCompressed(file, size, modified, hash);
+                report(file, outFile.length(), start);
+            } catch (IOException | RuntimeException e) {
+                fail(file, e);
+            }
+            addCpuTime(cpu);
+        }
+    }
+
+    /*
+     * Counts the bytes of one piece of a file, or once there is a plan,
+     * codes them into a buffer of their own.
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] data;
+        private final int from;
+        private final int to;
+        private final CompressionPlan plan;
+        private int[] counts;
+        private byte[] coded;
+        private int codedBits;
+
+        ChunkTask(byte[] data, int from, int to) {
+            this(data, from, to, null);
+        }
+
+        private ChunkTask(byte[] data, int from, int to, CompressionPlan plan) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.plan = plan;
+        }
+
+        ChunkTask coder(CompressionPlan plan) {
+            return new ChunkTask(data, from, to, plan);
+        }
+
+        protected void compute() {
+            long cpu = cpuTime();
+            if (plan == null) {
+                counts = new int[IHuffConstants.ALPH_SIZE];
+                for (int i = from; i < to; i++) {
+                    counts[data[i] & 0xff]++;
+                }
+            } else {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(to - from);
+                BitOutputStream bits = new BitOutputStream(buffer);
+                codedBits = plan.compressRange(data, from, to, bits);
+                bits.flush();
+                coded = buffer.toByteArray();
+            }
+            addCpuTime(cpu);
+        }
+    }
+
+    /*
+     * Writes buffers that each hold a number of bits, not always a multiple
+     * of 8, one after another with no gaps between them. Bits are stored
+     * high bit first, the way BitOutputStream writes them.
+     */
+    private static class BitJoiner {
+        private final OutputStream out;
+        // the low pendingBits bits of pending have not been written yet
+        private int pending;
+        private int pendingBits;
+
+        BitJoiner(OutputStream out) {
+            this.out = out;
+        }
+
+        void append(byte[] bytes, long bits) throws IOException {
+            int whole = (int) (bits / 8);
+            if (pendingBits == 0) {
+                out.write(bytes, 0, whole);
+            } else {
+                byte[] shifted = new byte[whole];
+                for (int i = 0; i < whole; i++) {
+                    int value = (pending << 8) | (bytes[i] & 0xff);
+                    shifted[i] = (byte) (value >>> pendingBits);
+                    pending = value & ((1 << pendingBits) - 1);
+                }
+                out.write(shifted);
+            }
+            int rest = (int) (bits % 8);
+            if (rest > 0) {
+                pending = (pending << rest) | ((bytes[whole] & 0xff) >>> (8 - rest));
+                pendingBits += rest;
+                if (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    out.write(pending >>> pendingBits);
+                    pending &= (1 << pendingBits) - 1;
+                }
+            }
+        }
+
+        // Writes the last bits, padded with 0s to a whole byte.
+        void finish() throws IOException {
+            if (pendingBits > 0) {
+                out.write(pending << (8 - pendingBits));
+                pendingBits = 0;
+                pending = 0;
+            }
+        }
+    }
+}
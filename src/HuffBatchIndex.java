@@ -0,0 +1,216 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The persistent index HuffBatch keeps so a run only compresses files that
+ * changed since the last one.
+ * <p>
+ * For each file compressed the index records its path, size, modification
+ * time and a SHA-256 hash of its contents, and the size and modification
+ * time of its .hf file. A file whose size and time still match, and whose
+ * .hf file is still the one recorded, is skipped after two stat calls. A
+ * file that did change is read and hashed, and if a file with the same
+ * contents was compressed before and its .hf file is still as recorded,
+ * that output is copied instead of compressing again.
+ * <p>
+ * The index is a text file with one line per file, headed by the header
+ * format it was made with. An index made with another format is ignored,
+ * since its outputs can not be reused.
+ */
+public class HuffBatchIndex {
+
+    private static final String HEADER = "huffindex 1 ";
+
+    private final File file;
+    private final int headerFormat;
+    private final ConcurrentMap<String, Entry> byPath = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> byHash = new ConcurrentHashMap<>();
+
+    /*
+     * What was recorded about one file and its .hf file.
+     */
+    private static class Entry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+        private final String output;
+        private final long outputSize;
+        private final long outputModified;
+
+        Entry(String path, long size, long modified, String hash, String output,
+                long outputSize, long outputModified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.output = output;
+            this.outputSize = outputSize;
+            this.outputModified = outputModified;
+        }
+
+        // Is the .hf file still the one that was recorded.
+        boolean hasOutput() {
+            File out = new File(output);
+            return out.lastModified() == outputModified && out.length() == outputSize;
+        }
+    }
+
+    /**
+     * Opens an index, reading it if file exists.
+     *
+     * @param file         where the index is kept
+     * @param headerFormat the header format of the batch using the index
+     * @throws IOException if file exists but can not be read
+     */
+    public HuffBatchIndex(File file, int headerFormat) throws IOException {
+        this.file = file;
+        this.headerFormat = headerFormat;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = in.readLine();
+            if (header == null || !header.equals(HEADER + headerFormat)) {
+                return;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 7);
+                if (fields.length != 7) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+                try {
+                    add(new Entry(fields[5], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            fields[0], fields[6], Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+            }
+        }
+    }
+
+    private void add(Entry entry) {
+        byPath.put(entry.path, entry);
+        byHash.put(entry.hash, entry);
+    }
+
+    /**
+     * Get the file the index is kept in.
+     *
+     * @return the index file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Checks if a file and its .hf file are as recorded, using only their
+     * sizes and modification times.
+     *
+     * @param f      the file to compress
+     * @param output its .hf file
+     * @return true if f need not be compressed again
+     */
+    public boolean isUnchanged(File f, File output) {
+        Entry entry = byPath.get(f.getAbsolutePath());
+        return entry != null && entry.size == f.length() && entry.modified == f.lastModified()
+                && entry.output.equals(output.getAbsolutePath()) && entry.hasOutput();
+    }
+
+    /**
+     * Copies the .hf file of a file with the same contents, if one was
+     * recorded and is still as it was written.
+     *
+     * @param hash   the hash of the contents, from hash
+     * @param output where the copy goes
+     * @return true if the output was copied, false if it must be compressed
+     * @throws IOException if the copy fails
+     */
+    public boolean reuse(String hash, File output) throws IOException {
+        Entry entry = byHash.get(hash);
+        if (entry == null || !entry.hasOutput()) {
+            return false;
+        }
+        if (!entry.output.equals(output.getAbsolutePath())) {
+            Files.copy(new File(entry.output).toPath(), output.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Records a file that was compressed or reused.
+     *
+     * @param f        the file
+     * @param size     its size before it was read
+     * @param modified its modification time before it was read
+     * @param hash     the hash of its contents
+     * @param output   its .hf file, already written
+     */
+    public void record(File f, long size, long modified, String hash, File output) {
+        add(new Entry(f.getAbsolutePath(), size, modified, hash, output.getAbsolutePath(),
+                output.length(), output.lastModified()));
+    }
+
+    /**
+     * Writes the index to its file, replacing it in one step so a run that
+     * is stopped does not leave half an index. Entries of files that no
+     * longer exist are dropped.
+     *
+     * @throws IOException if the index can not be written
+     */
+    public void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            out.write(HEADER + headerFormat);
+            out.newLine();
+            for (Entry e : byPath.values()) {
+                if (!new File(e.path).exists()) {
+                    byPath.remove(e.path, e);
+                    byHash.remove(e.hash, e);
+                    continue;
+                }
+                out.write(e.hash + "\t" + e.size + "\t" + e.modified + "\t" + e.outputSize
+                        + "\t" + e.outputModified + "\t" + e.path + "\t" + e.output);
+                out.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the hash the index keys contents by.
+     *
+     * @param data the contents of a file
+     * @return the SHA-256 of data in hex
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Microbenchmarks for the hot paths of compressing and uncompressing, run
+ * on each SyntheticCorpus at several sizes.
+ * <p>
+ * Each benchmark is set up once per corpus, then run for WARMUP_ITERATIONS
+ * untimed iterations so the JIT compiles it, then MEASURE_ITERATIONS timed
+ * ones, each repeating the operation for ITERATION_MILLIS. Results are
+ * passed to a sink so the JIT can not drop the work. For each benchmark the
+ * mean and standard deviation of the operations per second, the throughput
+ * in MB of corpus per second and the bytes allocated per operation are
+ * printed, the last from the allocation counter of the thread, as the GC
+ * profiler of JMH reports it.
+ * <p>
+ * Usage: java HuffBench [-w warmups] [-i iterations] [-t millis]
+ * [-c corpus,...] [-s size,...] [benchmark ...]
+ */
+public class HuffBench {
+
+    /**
+     * Default numbers of untimed and timed iterations, and their length.
+     */
+    public static final int WARMUP_ITERATIONS = 3;
+    public static final int MEASURE_ITERATIONS = 5;
+    public static final int ITERATION_MILLIS = 200;
+
+    /**
+     * Default corpus sizes, in bytes.
+     */
+    public static final int[] SIZES = {1 << 12, 1 << 16, 1 << 20};
+    private static final int[] BIT_WIDTHS = {1, 8, 13};
+
+    private int warmups = WARMUP_ITERATIONS;
+    private int iterations = MEASURE_ITERATIONS;
+    private int millis = ITERATION_MILLIS;
+    private final Map<String, Setup> benchmarks = new LinkedHashMap<>();
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // results of the benchmarks end up here so they are not optimized away
+    private long sink;
+
+    /*
+     * One operation of a benchmark, ready to be timed.
+     */
+    private interface Operation {
+        long run() throws IOException;
+    }
+
+    /*
+     * Prepares a benchmark for a corpus. Work done here is not timed.
+     */
+    private interface Setup {
+        Operation prepare(byte[] data) throws IOException;
+    }
+
+    /**
+     * Creates the benchmark suite.
+     */
+    public HuffBench() {
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        benchmarks.put("plan", data -> () ->
+                huffer.plan(new ByteArrayInputStream(data), IHuffConstants.STORE_COUNTS)
+                        .getSavedBits());
+        benchmarks.put("huffmanTree", data -> {
+            int[] counts = count(data);
+            return () -> new HuffmanTree(counts).size();
+        });
+        benchmarks.put("getValueMappings", data -> {
+            HuffmanTree tree = new HuffmanTree(count(data));
+            return () -> tree.getValueMappings().size();
+        });
+        benchmarks.put("getCodeTable", data -> {
+            HuffmanTree tree = new HuffmanTree(count(data));
+            return () -> tree.getCodeTable().getMaxLength();
+        });
+        benchmarks.put("compressBody", data -> {
+            CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data),
+                    IHuffConstants.STORE_COUNTS);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 1024);
+            return () -> {
+                out.reset();
+                BitOutputStream bits = new BitOutputStream(out);
+                int written = plan.compressBody(new BitInputStream(
+                        new ByteArrayInputStream(data)), bits, null);
+                bits.flush();
+                return written;
+            };
+        });
+        benchmarks.put("uncompress", data -> {
+            byte[] compressed = compress(huffer, data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 1024);
+            return () -> {
+                out.reset();
+                return huffer.uncompress(new ByteArrayInputStream(compressed), out);
+            };
+        });
+        for (int width : BIT_WIDTHS) {
+            benchmarks.put("readBits" + width, data -> () -> {
+                BitInputStream in = new BitInputStream(new ByteArrayInputStream(data));
+                long sum = 0;
+                int bits = in.readBits(width);
+                while (bits != -1) {
+                    sum += bits;
+                    bits = in.readBits(width);
+                }
+                return sum;
+            });
+            benchmarks.put("writeBits" + width, data -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 4);
+                int count = data.length * 8 / width;
+                return () -> {
+                    out.reset();
+                    BitOutputStream bits = new BitOutputStream(out);
+                    for (int i = 0; i < count; i++) {
+                        bits.writeBits(width, data[i % data.length] & 0xff);
+                    }
+                    bits.flush();
+                    return out.size();
+                };
+            });
+        }
+    }
+
+    private static int[] count(byte[] data) {
+        int[] counts = new int[IHuffConstants.ALPH_SIZE];
+        for (byte b : data) {
+            counts[b & 0xff]++;
+        }
+        return counts;
+    }
+
+    private static byte[] compress(SimpleHuffProcessor huffer, byte[] data) throws IOException {
+        CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data),
+                IHuffConstants.STORE_COUNTS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        huffer.compress(plan, new ByteArrayInputStream(data), out, true);
+        return out.toByteArray();
+    }
+
+    /**
+     * Runs the named benchmarks, or all of them if names is empty, on each
+     * of the corpora at each of the sizes, printing one line per result.
+     *
+     * @param names   the benchmarks to run
+     * @param corpora the kinds of SyntheticCorpus to run on
+     * @param sizes   the corpus sizes in bytes
+     * @throws IOException if a benchmark fails
+     */
+    public void run(List<String> names, String[] corpora, int[] sizes) throws IOException {
+        System.out.printf("%-18s %-8s %9s %14s %10s %10s %12s\n", "benchmark", "corpus",
+                "size", "ops/s", "+-", "MB/s", "alloc B/op");
+        for (Map.Entry<String, Setup> benchmark : benchmarks.entrySet()) {
+            if (!names.isEmpty() && !names.contains(benchmark.getKey())) {
+                continue;
+            }
+            for (String corpus : corpora) {
+                for (int size : sizes) {
+                    byte[] data = SyntheticCorpus.generate(corpus, size);
+                    Operation op = benchmark.getValue().prepare(data);
+                    measure(benchmark.getKey(), corpus, size, op);
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private void measure(String name, String corpus, int size, Operation op) throws IOException {
+        for (int i = 0; i < warmups; i++) {
+            iteration(op);
+        }
+        double[] opsPerSecond = new double[iterations];
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            long ops = iteration(op);
+            long elapsed = System.nanoTime() - start;
+            totalBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId())
+                    - allocated;
+            totalOps += ops;
+            opsPerSecond[i] = ops * 1e9 / elapsed;
+        }
+        double mean = Arrays.stream(opsPerSecond).average().orElse(0);
+        double variance = 0;
+        for (double value : opsPerSecond) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        System.out.printf("%-18s %-8s %9d %14.1f %10.1f %10.2f %12d\n", name, corpus, size,
+                mean, deviation, mean * size / (1 << 20), totalBytes / Math.max(1, totalOps));
+    }
+
+    // Runs op for at least millis and returns how many times it ran.
+    private long iteration(Operation op) throws IOException {
+        long end = System.nanoTime() + millis * 1000000L;
+        long ops = 0;
+        do {
+            sink += op.run();
+            ops++;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+
+    public static void main(String[] args) throws IOException {
+        HuffBench bench = new HuffBench();
+        List<String> names = new ArrayList<>();
+        String[] corpora = SyntheticCorpus.KINDS;
+        int[] sizes = SIZES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w")) {
+                bench.warmups = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-i")) {
+                bench.iterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-t")) {
+                bench.millis = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-c")) {
+                corpora = args[++i].split(",");
+            } else if (args[i].equals("-s")) {
+                sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else {
+                names.add(args[i]);
+            }
+        }
+        bench.run(names, corpora, sizes);
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A connection to a HuffServer. Each request streams its payload to the
+ * server on a thread of the client while the calling thread reads the
+ * response, since the server starts answering before the payload ends.
+ * <p>
+ * A client makes one request at a time and is not thread-safe; open one
+ * per thread, or pool them.
+ */
+public class HuffClient implements Closeable, IHuffConstants {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ExecutorService sender;
+    private final HuffServer.ChunkOutputStream chunks;
+    private final byte[] buffer = new byte[HuffServer.CHUNK_SIZE];
+
+    /**
+     * Connects to a server.
+     *
+     * @param address the address of the server, TCP or Unix domain
+     * @throws IOException if the connection can not be made
+     */
+    public HuffClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        HuffServer.noDelay(channel);
+        in = new DataInputStream(new BufferedInputStream(new HuffServer.ChannelInputStream(channel),
+                HuffServer.CHUNK_SIZE));
+        out = new DataOutputStream(new BufferedOutputStream(new HuffServer.ChannelOutputStream(channel),
+                HuffServer.CHUNK_SIZE));
+        chunks = new HuffServer.ChunkOutputStream(out);
+        sender = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "huff-client-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Compresses data on the server.
+     *
+     * @param data         the data to compress, read to its end but not closed
+     * @param compressed   where the compressed file is written, not closed
+     * @param headerFormat the header format, not STORE_DICTIONARY
+     * @param checksummed  true to add a checksum to the compressed file
+     * @throws IOException if the server fails to compress, or the
+     *                     connection fails
+     */
+    public void compress(InputStream data, OutputStream compressed, int headerFormat,
+            boolean checksummed) throws IOException {
+        if (headerFormat == STORE_DICTIONARY) {
+            throw new IllegalArgumentException("The Dictionary Format needs a dictionary id.");
+        }
+        request(HuffServer.COMPRESS, headerFormat, checksummed, 0, data, compressed);
+    }
+
+    /**
+     * Compresses data on the server in the Dictionary Format.
+     *
+     * @param data         the data to compress, read to its end but not closed
+     * @param compressed   where the compressed file is written, not closed
+     * @param dictionaryId the id of a dictionary loaded by the server
+     * @param checksummed  true to add a checksum to the compressed file
+     * @throws IOException if the server fails to compress, or the
+     *                     connection fails
+     */
+    public void compressWithDictionary(InputStream data, OutputStream compressed,
+            int dictionaryId, boolean checksummed) throws IOException {
+        request(HuffServer.COMPRESS, STORE_DICTIONARY, checksummed, dictionaryId, data,
+                compressed);
+    }
+
+    /**
+     * Uncompresses a compressed file on the server.
+     *
+     * @param compressed the compressed file, read to its end but not closed
+     * @param data       where the data is written, not closed
+     * @throws IOException if the file is damaged, or the connection fails
+     */
+    public void uncompress(InputStream compressed, OutputStream data) throws IOException {
+        request(HuffServer.UNCOMPRESS, 0, false, 0, compressed, data);
+    }
+
+    /**
+     * Checks a compressed file on the server.
+     *
+     * @param compressed the compressed file, read to its end but not closed
+     * @return true if the file has a checksum, which matched
+     * @throws IOException if the file is damaged, or the connection fails
+     */
+    public boolean verify(InputStream compressed) throws IOException {
+        int[] result = new int[1];
+        request(HuffServer.VERIFY, 0, false, 0, compressed, new OutputStream() {
+            public void write(int b) {
+                result[0] = b;
+            }
+        });
+        return result[0] == 1;
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if it can not be closed
+     */
+    public void close() throws IOException {
+        sender.shutdownNow();
+        channel.close();
+    }
+
+    // Sends a request on the sender thread while the response is read here.
+    private void request(int op, int headerFormat, boolean checksummed, int dictionaryId,
+            InputStream payload, OutputStream output) throws IOException {
+        Future<Void> sent = sender.submit(() -> {
+            try {
+                send(op, headerFormat, checksummed, dictionaryId, payload);
+            } catch (IOException | RuntimeException e) {
+                // the server is waiting for the rest, so stop the reader too
+                channel.close();
+                throw e;
+            }
+            return null;
+        });
+        String error = null;
+        try {
+            int length = in.readInt();
+            while (length > 0) {
+                while (length > 0) {
+                    int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new IOException("Connection closed in the middle of a chunk.");
+                    }
+                    output.write(buffer, 0, n);
+                    length -= n;
+                }
+                length = in.readInt();
+            }
+            if (length < 0) {
+                error = in.readUTF();
+            }
+        } catch (IOException e) {
+            // the request can not be finished, nor the connection used again;
+            // if sending failed first, that is the error to report
+            channel.close();
+            try {
+                sent.get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException x) {
+                Throwable cause = x.getCause();
+                if (cause instanceof IOException && !(cause instanceof ClosedChannelException)) {
+                    throw (IOException) cause;
+                }
+            } catch (TimeoutException x) {
+                sent.cancel(true);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        }
+        failure(sent);
+        output.flush();
+        if (error != null) {
+            throw new IOException("Server: " + error);
+        }
+    }
+
+    // Waits for the request to be sent and throws what stopped it, if anything.
+    private static void failure(Future<Void> sent) throws IOException {
+        try {
+            sent.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sending");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause
+                    : new IOException("error sending: " + cause, cause);
+        }
+    }
+
+    // Writes the request and its payload as chunks.
+    private void send(int op, int headerFormat, boolean checksummed, int dictionaryId,
+            InputStream payload) throws IOException {
+        out.write(op);
+        if (op == HuffServer.COMPRESS) {
+            out.writeInt(headerFormat);
+            out.write(checksummed ? HuffServer.CHECKSUM_REQUESTED : 0);
+            if (headerFormat == STORE_DICTIONARY) {
+                out.writeInt(dictionaryId);
+            }
+        }
+        payload.transferTo(chunks);
+        chunks.finish();
+        out.writeInt(0);
+        out.flush();
+    }
+}
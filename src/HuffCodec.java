@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses and uncompresses whole messages held in memory, for small
+ * payloads where the streams, viewer and three step protocol of
+ * IHuffProcessor would cost more than the coding itself.
+ * <p>
+ * Bytes are counted and coded straight from the source array and the bits
+ * are packed straight into the destination array, with no stream objects
+ * in between. The output is a Sparse Format file with BITS_PER_WORD bits
+ * per word, the same bytes SimpleHuffProcessor writes for that format, so
+ * either side can be read by the other. Its header holds only the code
+ * lengths of the values used, which keeps it small next to a short message.
+ * <p>
+ * With a dictionary set, messages are written in the Dictionary Format
+ * instead: the header is just the dictionary id and nothing is counted or
+ * built per message. Dictionary Format messages are uncompressed with the
+ * dictionaries of a HuffDictionaryRegistry.
+ * <p>
+ * A codec keeps its counts, code table, decoding trie and scratch space
+ * between calls and resets them in place, so after its first messages it
+ * allocates nothing. It is not safe to use from more than one thread at a
+ * time; HuffCodecPool hands out codecs to many threads.
+ */
+public class HuffCodec implements IHuffConstants {
+
+    // magic number and header format
+    private static final int FORMAT_BITS = BITS_PER_INT * 2;
+    // the Sparse Format header before the code lengths
+    private static final int FIXED_HEADER_BITS = FORMAT_BITS + CompressionPlan.WORD_SIZE_BITS * 2;
+    private static final int COUNT_BITS = CodeTable.bitsFor(ALPH_SIZE + 1);
+    private static final int SYMBOL_BITS = CodeTable.bitsFor(ALPH_SIZE);
+    private static final int MAX_HEADER_BYTES = (FIXED_HEADER_BITS + COUNT_BITS
+            + (ALPH_SIZE + 1) * (SYMBOL_BITS + CodeTable.LENGTH_BITS) + 7) / 8;
+
+    private final int[] freqs = new int[ALPH_SIZE + 1];
+    private final int[] lengths = new int[ALPH_SIZE + 1];
+    private final long[] work = new long[6 * (ALPH_SIZE + 1)];
+    private final CodeTable table = new CodeTable(ALPH_SIZE + 1);
+    private HuffDictionary dictionary;
+    private HuffDictionaryRegistry dictionaries = HuffDictionaryRegistry.getDefault();
+    // for ByteBuffers without a backing array
+    private byte[] inScratch = new byte[0];
+    private byte[] outScratch = new byte[0];
+
+    // the bits not yet written, and where the next byte goes
+    private long bitBuffer;
+    private int bitCount;
+    private byte[] dest;
+    private int destPos;
+
+    /**
+     * Get the most bytes compress can write for a message without a
+     * dictionary. A dictionary may give values it rarely saw codes of up to
+     * CodeTable.MAX_CODE_LENGTH bits.
+     *
+     * @param len the size of the message
+     * @return an upper bound on the size of the compressed message
+     */
+    public static int compressBound(int len) {
+        // a Huffman code averages under one bit more than the entropy,
+        // which is at most log2(ALPH_SIZE + 1) bits, so 10 bits per byte
+        // leaves room for codes limited to CodeTable.MAX_CODE_LENGTH
+        return MAX_HEADER_BYTES + (int) (((long) len + 1) * 10 / 8) + 1;
+    }
+
+    /**
+     * Set the dictionary messages compressed after this call are coded with.
+     * A pooled codec keeps its dictionary when it is released.
+     *
+     * @param dictionary the dictionary, or null to write Sparse Format
+     *                   messages with their own code lengths
+     */
+    public void setDictionary(HuffDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Set where uncompress looks up the dictionaries of Dictionary Format
+     * messages. HuffDictionaryRegistry.getDefault is used unless this is
+     * called.
+     *
+     * @param registry the dictionaries to look in
+     */
+    public void setDictionaries(HuffDictionaryRegistry registry) {
+        dictionaries = registry;
+    }
+
+    /**
+     * Compresses len bytes of src starting at off into dst starting at
+     * dstOff.
+     *
+     * @param src    the message
+     * @param off    the first byte of the message
+     * @param len    the number of bytes in the message
+     * @param dst    where the compressed message is written
+     * @param dstOff the first byte of dst to write
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the compressed message does not
+     *                                  fit in dst
+     */
+    public int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        return compress(src, off, len, dst, dstOff, dst.length);
+    }
+
+    // Compresses into dst[dstOff] to dst[dstEnd - 1].
+    private int compress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstEnd) {
+        if (off < 0 || len < 0 || off + len > src.length || dstOff < 0
+                || dstOff > dstEnd || dstEnd > dst.length) {
+            throw new IndexOutOfBoundsException("bad offset or length");
+        }
+        HuffDictionary trained = dictionary;
+        CodeTable coder = trained == null ? table : trained.getCodeTable();
+        int size = trained == null ? plan(src, off, len) : measure(coder, src, off, len);
+        if (size > dstEnd - dstOff) {
+            throw new IllegalArgumentException("Compressed message needs " + size
+                    + " bytes, only " + (dstEnd - dstOff) + " available.");
+        }
+        startWriting(dst, dstOff);
+        if (trained == null) {
+            writeHeader();
+        } else {
+            writeBits(BITS_PER_INT, MAGIC_NUMBER & 0xffffffffL);
+            writeBits(BITS_PER_INT, STORE_DICTIONARY & 0xffffffffL);
+            writeBits(DICTIONARY_ID_BITS, trained.getId());
+        }
+        for (int i = off, end = off + len; i < end; i++) {
+            int value = src[i] & 0xff;
+            writeBits(coder.getLength(value), coder.getCode(value));
+        }
+        writeBits(coder.getLength(PSEUDO_EOF), coder.getCode(PSEUDO_EOF));
+        return finishWriting() - dstOff;
+    }
+
+    /**
+     * Compresses the bytes remaining in src into dst. The position of src
+     * is moved to its limit and the position of dst past what is written.
+     *
+     * @param src the message, from its position to its limit
+     * @param dst where the compressed message is written
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the compressed message does not
+     *                                  fit in the remaining space of dst
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        byte[] in;
+        int off;
+        if (src.hasArray()) {
+            in = src.array();
+            off = src.arrayOffset() + src.position();
+        } else {
+            in = inScratch = scratch(inScratch, len);
+            off = 0;
+            src.get(src.position(), in, 0, len);
+        }
+        int written;
+        if (dst.hasArray()) {
+            int start = dst.arrayOffset() + dst.position();
+            written = compress(in, off, len, dst.array(), start, start + dst.remaining());
+            dst.position(dst.position() + written);
+        } else {
+            byte[] out = outScratch = scratch(outScratch, dst.remaining());
+            written = compress(in, off, len, out, 0, dst.remaining());
+            dst.put(out, 0, written);
+        }
+        src.position(src.limit());
+        return written;
+    }
+
+    /**
+     * Uncompresses a message written by compress, or any Sparse Format file
+     * with BITS_PER_WORD bits per word, or Dictionary Format file, with no
+     * transforms or checksum.
+     *
+     * @param src    the compressed message
+     * @param off    the first byte of the compressed message
+     * @param len    the number of bytes in the compressed message
+     * @param dst    where the message is written
+     * @param dstOff the first byte of dst to write
+     * @return the number of bytes written
+     * @throws IOException              if the compressed message is invalid
+     * @throws IllegalArgumentException if the message does not fit in dst
+     */
+    public int uncompress(byte[] src, int off, int len, byte[] dst, int dstOff)
+            throws IOException {
+        return uncompress(src, off, len, dst, dstOff, dst.length);
+    }
+
+    // Uncompresses into dst[dstOff] to dst[dstEnd - 1].
+    private int uncompress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstEnd)
+            throws IOException {
+        if (off < 0 || len < 0 || off + len > src.length || dstOff < 0
+                || dstOff > dstEnd || dstEnd > dst.length) {
+            throw new IndexOutOfBoundsException("bad offset or length");
+        }
+        long end = (long) (off + len) * BITS_PER_WORD;
+        long bit = (long) off * BITS_PER_WORD;
+        if (end - bit < FORMAT_BITS + DICTIONARY_ID_BITS) {
+            throw new IOException("Compressed message is truncated.");
+        }
+        if (readBits(src, bit, BITS_PER_INT) != MAGIC_NUMBER) {
+            throw new IOException("Required magic number not present.");
+        }
+        bit += BITS_PER_INT;
+        int format = readBits(src, bit, BITS_PER_INT);
+        bit += BITS_PER_INT;
+        if (format == STORE_DICTIONARY) {
+            int id = readBits(src, bit, DICTIONARY_ID_BITS);
+            bit += DICTIONARY_ID_BITS;
+            return decode(dictionaries.get(id).getCodeTable(), src, bit, end, dst, dstOff,
+                    dstEnd);
+        } else if (format != STORE_SPARSE) {
+            throw new IOException("Only the Sparse and Dictionary Formats can be"
+                    + " uncompressed from memory.");
+        } else if (end - bit < FIXED_HEADER_BITS - FORMAT_BITS + COUNT_BITS) {
+            throw new IOException("Compressed message is truncated.");
+        }
+        int words = readBits(src, bit, CompressionPlan.WORD_SIZE_BITS);
+        int tail = readBits(src, bit + CompressionPlan.WORD_SIZE_BITS,
+                CompressionPlan.WORD_SIZE_BITS);
+        if (words != BITS_PER_WORD || tail != 0) {
+            throw new IOException("Only " + BITS_PER_WORD
+                    + " bits per word can be uncompressed from memory.");
+        }
+        bit += CompressionPlan.WORD_SIZE_BITS * 2;
+        bit = readTable(src, bit, end);
+        return decode(table, src, bit, end, dst, dstOff, dstEnd);
+    }
+
+    // Decodes the codes from bit up to the PSEUDO_EOF into dst[dstOff] to
+    // dst[dstEnd - 1].
+    private static int decode(CodeTable table, byte[] src, long bit, long end, byte[] dst,
+            int dstOff, int dstEnd) throws IOException {
+        int pos = dstOff;
+        int node = 0;
+        while (bit < end) {
+            int next = table.child(node, (src[(int) (bit >>> 3)] >>> (7 - (int) (bit & 7))) & 1);
+            bit++;
+            if (next > 0) {
+                node = next;
+            } else if (next == 0) {
+                throw new IOException("Invalid code in compressed data.");
+            } else if (~next == PSEUDO_EOF) {
+                return pos - dstOff;
+            } else {
+                if (pos == dstEnd) {
+                    throw new IllegalArgumentException("Message does not fit in "
+                            + (dstEnd - dstOff) + " bytes.");
+                }
+                dst[pos++] = (byte) ~next;
+                node = 0;
+            }
+        }
+        throw new IOException("No PSEUDO_EOF value.");
+    }
+
+    /**
+     * Uncompresses the bytes remaining in src into dst. The position of src
+     * is moved to its limit and the position of dst past what is written.
+     *
+     * @param src the compressed message, from its position to its limit
+     * @param dst where the message is written
+     * @return the number of bytes written
+     * @throws IOException              if the compressed message is invalid
+     * @throws IllegalArgumentException if the message does not fit in the
+     *                                  remaining space of dst
+     */
+    public int uncompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int len = src.remaining();
+        byte[] in;
+        int off;
+        if (src.hasArray()) {
+            in = src.array();
+            off = src.arrayOffset() + src.position();
+        } else {
+            in = inScratch = scratch(inScratch, len);
+            off = 0;
+            src.get(src.position(), in, 0, len);
+        }
+        int written;
+        if (dst.hasArray()) {
+            int start = dst.arrayOffset() + dst.position();
+            written = uncompress(in, off, len, dst.array(), start, start + dst.remaining());
+            dst.position(dst.position() + written);
+        } else {
+            byte[] out = outScratch = scratch(outScratch, dst.remaining());
+            written = uncompress(in, off, len, out, 0, dst.remaining());
+            dst.put(out, 0, written);
+        }
+        src.position(src.limit());
+        return written;
+    }
+
+    // Get the exact size in bytes of a message coded with a dictionary table.
+    private static int measure(CodeTable coder, byte[] src, int off, int len) {
+        long bits = FORMAT_BITS + DICTIONARY_ID_BITS + coder.getLength(PSEUDO_EOF);
+        for (int i = off, end = off + len; i < end; i++) {
+            bits += coder.getLength(src[i] & 0xff);
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    // Counts the message, builds the code table and returns the exact size
+    // of the compressed message in bytes.
+    private int plan(byte[] src, int off, int len) {
+        Arrays.fill(freqs, 0);
+        for (int i = off, end = off + len; i < end; i++) {
+            freqs[src[i] & 0xff]++;
+        }
+        freqs[PSEUDO_EOF] = 1;
+        table.buildCanonical(freqs, work);
+        long bits = FIXED_HEADER_BITS + table.getHeaderSize() + table.getEncodedSize(freqs);
+        return (int) ((bits + 7) / 8);
+    }
+
+    // Writes the magic number and the Sparse Format header.
+    private void writeHeader() {
+        writeBits(BITS_PER_INT, MAGIC_NUMBER & 0xffffffffL);
+        writeBits(BITS_PER_INT, STORE_SPARSE & 0xffffffffL);
+        writeBits(CompressionPlan.WORD_SIZE_BITS, BITS_PER_WORD);
+        writeBits(CompressionPlan.WORD_SIZE_BITS, 0);
+        writeBits(COUNT_BITS, table.getNumSymbols());
+        for (int s = 0; s <= PSEUDO_EOF; s++) {
+            int length = table.getLength(s);
+            if (length > 0) {
+                writeBits(SYMBOL_BITS, s);
+                writeBits(CodeTable.LENGTH_BITS, length);
+            }
+        }
+    }
+
+    // Reads the code lengths written by CodeTable.writeHeader starting at
+    // bit and builds the table from them. Returns the bit after the header.
+    private long readTable(byte[] src, long bit, long end) throws IOException {
+        int count = readBits(src, bit, COUNT_BITS);
+        bit += COUNT_BITS;
+        if (count > ALPH_SIZE + 1
+                || end - bit < (long) count * (SYMBOL_BITS + CodeTable.LENGTH_BITS)) {
+            throw new IOException("Invalid code table header.");
+        }
+        Arrays.fill(lengths, 0);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int s = readBits(src, bit, SYMBOL_BITS);
+            int length = readBits(src, bit + SYMBOL_BITS, CodeTable.LENGTH_BITS);
+            bit += SYMBOL_BITS + CodeTable.LENGTH_BITS;
+            if (s <= previous || s > ALPH_SIZE || length <= 0) {
+                throw new IOException("Invalid code table header.");
+            }
+            lengths[s] = length;
+            previous = s;
+        }
+        try {
+            table.setLengths(lengths);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid code table header. " + e.getMessage());
+        }
+        return bit;
+    }
+
+    // Get howMany bits, at most BITS_PER_INT, starting at bit of src, high
+    // bit first. The caller checks that the bits are there.
+    private static int readBits(byte[] src, long bit, int howMany) {
+        long value = 0;
+        int first = (int) (bit >>> 3);
+        int skip = (int) (bit & 7);
+        int bytes = (skip + howMany + 7) >>> 3;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (src[first + i] & 0xff);
+        }
+        return (int) ((value >>> (bytes * 8 - skip - howMany)) & ((1L << howMany) - 1));
+    }
+
+    private void startWriting(byte[] dst, int pos) {
+        dest = dst;
+        destPos = pos;
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    // Adds the rightmost howMany bits of value, at most BITS_PER_INT, and
+    // writes every whole byte.
+    private void writeBits(int howMany, long value) {
+        bitBuffer = (bitBuffer << howMany) | (value & ((1L << howMany) - 1));
+        bitCount += howMany;
+        while (bitCount >= BITS_PER_WORD) {
+            bitCount -= BITS_PER_WORD;
+            dest[destPos++] = (byte) (bitBuffer >>> bitCount);
+        }
+    }
+
+    // Writes the last bits padded with zeros and returns the position after
+    // them. dest is let go so the codec does not keep a message alive.
+    private int finishWriting() {
+        if (bitCount > 0) {
+            dest[destPos++] = (byte) (bitBuffer << (BITS_PER_WORD - bitCount));
+        }
+        dest = null;
+        bitCount = 0;
+        return destPos;
+    }
+
+    // Get array if it holds at least size bytes, or a larger one.
+    private static byte[] scratch(byte[] array, int size) {
+        return array.length < size ? new byte[size] : array;
+    }
+}
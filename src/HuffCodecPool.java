@@ -0,0 +1,84 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of HuffCodec contexts for code that compresses many small messages
+ * on many threads. Each codec owns its counts, code table, decoding trie and
+ * bit buffer and resets them in place for every message, so once the pool
+ * is warm compressing and uncompressing allocate nothing.
+ * <p>
+ * Take a codec with acquire, use it on one thread, and give it back with
+ * release. A codec that is not given back is left for the garbage
+ * collector. Threads that live as long as the service, such as the threads
+ * of a fixed pool, can use forThread instead and skip the pool.
+ */
+public class HuffCodecPool {
+
+    /**
+     * Default number of idle codecs kept.
+     */
+    public static final int DEFAULT_SIZE = 64;
+
+    private static final ThreadLocal<HuffCodec> LOCAL = ThreadLocal.withInitial(HuffCodec::new);
+
+    private final BlockingQueue<HuffCodec> idle;
+
+    /**
+     * Creates a pool that keeps up to DEFAULT_SIZE idle codecs.
+     */
+    public HuffCodecPool() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param size the most idle codecs kept, more can be in use at once
+     */
+    public HuffCodecPool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        idle = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Get the codec of the calling thread, made the first time it is asked
+     * for. It must not be passed to other threads.
+     *
+     * @return the codec of this thread
+     */
+    public static HuffCodec forThread() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Takes an idle codec from the pool, or makes one if none is idle.
+     *
+     * @return a codec for the caller alone until it is released
+     */
+    public HuffCodec acquire() {
+        HuffCodec codec = idle.poll();
+        return codec != null ? codec : new HuffCodec();
+    }
+
+    /**
+     * Gives a codec back to the pool. The codec must not be used after this
+     * call. If the pool already has its size of idle codecs this one is
+     * dropped.
+     *
+     * @param codec a codec from acquire
+     */
+    public void release(HuffCodec codec) {
+        idle.offer(codec);
+    }
+
+    /**
+     * Get the number of idle codecs in the pool.
+     *
+     * @return the number of codecs acquire can return without making one
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+}
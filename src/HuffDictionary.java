@@ -0,0 +1,192 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A code table trained on a sample of messages, for compressing messages too
+ * small to carry their own header. Files compressed in the Dictionary
+ * Format hold only the id of the dictionary, and are coded with its table
+ * without counting or building anything per message.
+ * <p>
+ * Every byte value gets a code, even those not in the sample, so any
+ * message can be compressed. The id is taken from the code lengths, so
+ * dictionaries with the same table have the same id and different tables
+ * almost never share one.
+ * <p>
+ * A dictionary file holds MAGIC_NUMBER, STORE_DICTIONARY, the id in
+ * DICTIONARY_ID_BITS bits and the code lengths as written by
+ * CodeTable.writeHeader.
+ * <p>
+ * Usage: java HuffDictionary output.dict sample ... where each sample is a
+ * file, one message, or a directory of them.
+ */
+public class HuffDictionary implements IHuffConstants {
+
+    private final int id;
+    private final CodeTable table;
+
+    private HuffDictionary(CodeTable table) {
+        this.table = table;
+        id = idOf(table);
+    }
+
+    /**
+     * Trains a dictionary on messages.
+     *
+     * @param samples the messages to train on
+     * @return the dictionary
+     */
+    public static HuffDictionary train(List<byte[]> samples) {
+        int[] freqs = new int[ALPH_SIZE + 1];
+        // start every value at 1 so every value has a code
+        Arrays.fill(freqs, 0, ALPH_SIZE, 1);
+        for (byte[] sample : samples) {
+            for (byte b : sample) {
+                freqs[b & 0xff]++;
+            }
+        }
+        // each message ends with one PSEUDO_EOF
+        freqs[PSEUDO_EOF] = Math.max(1, samples.size());
+        CodeTable table = new CodeTable(ALPH_SIZE + 1);
+        table.buildCanonical(freqs);
+        return new HuffDictionary(table);
+    }
+
+    /**
+     * Reads a dictionary written by write.
+     *
+     * @param in the dictionary file
+     * @return the dictionary
+     * @throws IOException if in can not be read or is not a dictionary
+     */
+    public static HuffDictionary read(InputStream in) throws IOException {
+        BitInputStream input = new BitInputStream(in);
+        if (input.readBits(BITS_PER_INT) != MAGIC_NUMBER
+                || input.readBits(BITS_PER_INT) != STORE_DICTIONARY) {
+            throw new IOException("Not a dictionary file.");
+        }
+        int id = input.readBits(DICTIONARY_ID_BITS);
+        CodeTable table = new CodeTable(ALPH_SIZE + 1);
+        table.readHeader(input);
+        for (int s = 0; s <= PSEUDO_EOF; s++) {
+            if (table.getLength(s) == 0) {
+                throw new IOException("Dictionary has no code for " + s + ".");
+            }
+        }
+        HuffDictionary dictionary = new HuffDictionary(table);
+        if (dictionary.id != id) {
+            throw new IOException("Dictionary id " + id + " does not match its table.");
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads a dictionary file.
+     *
+     * @param file the dictionary file
+     * @return the dictionary
+     * @throws IOException if file can not be read or is not a dictionary
+     */
+    public static HuffDictionary read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Writes this dictionary. The stream is flushed but not closed.
+     *
+     * @param out where the dictionary is written
+     */
+    public void write(OutputStream out) {
+        BitOutputStream output = new BitOutputStream(out);
+        output.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        output.writeBits(BITS_PER_INT, STORE_DICTIONARY);
+        output.writeBits(DICTIONARY_ID_BITS, id);
+        table.writeHeader(output);
+        output.flush();
+    }
+
+    /**
+     * Get the id stored in files compressed with this dictionary.
+     *
+     * @return the id, never negative
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the code table of this dictionary. It has a code for every value
+     * and for PSEUDO_EOF, and must not be changed.
+     *
+     * @return the code table
+     */
+    CodeTable getCodeTable() {
+        return table;
+    }
+
+    /**
+     * Get the average number of bits per byte this dictionary codes a
+     * message in, not counting the header and PSEUDO_EOF.
+     *
+     * @param message the message
+     * @return the bits per byte
+     */
+    public double getBitsPerByte(byte[] message) {
+        long bits = 0;
+        for (byte b : message) {
+            bits += table.getLength(b & 0xff);
+        }
+        return message.length == 0 ? 0 : (double) bits / message.length;
+    }
+
+    // The id is the CRC32C of the code lengths, without its top bit so it
+    // reads back from a BitInputStream as a value rather than -1.
+    private static int idOf(CodeTable table) {
+        CRC32C crc = new CRC32C();
+        for (int s = 0; s <= PSEUDO_EOF; s++) {
+            crc.update(table.getLength(s));
+        }
+        return (int) crc.getValue() & Integer.MAX_VALUE;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java HuffDictionary output.dict sample ...");
+            System.exit(2);
+        }
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            try (Stream<Path> paths = Files.walk(new File(args[i]).toPath())) {
+                for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                    samples.add(Files.readAllBytes(path));
+                }
+            }
+        }
+        HuffDictionary dictionary = train(samples);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]))) {
+            dictionary.write(out);
+        }
+        long bytes = 0;
+        double bits = 0;
+        for (byte[] sample : samples) {
+            bytes += sample.length;
+            bits += dictionary.getBitsPerByte(sample) * sample.length;
+        }
+        System.out.printf("dictionary %d from %d samples, %d bytes, %.3f bits per byte\n",
+                dictionary.getId(), samples.size(), bytes, bytes == 0 ? 0 : bits / bytes);
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The dictionaries a processor can uncompress Dictionary Format files with,
+ * by id. Each dictionary is read and its decoding table built once, then
+ * shared by every thread that looks it up.
+ */
+public class HuffDictionaryRegistry {
+
+    private static final HuffDictionaryRegistry DEFAULT = new HuffDictionaryRegistry();
+
+    private final ConcurrentMap<Integer, HuffDictionary> dictionaries =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Get the registry used by processors unless they are given another.
+     *
+     * @return the shared registry
+     */
+    public static HuffDictionaryRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds a dictionary, replacing any with the same id.
+     *
+     * @param dictionary the dictionary
+     */
+    public void register(HuffDictionary dictionary) {
+        dictionaries.put(dictionary.getId(), dictionary);
+    }
+
+    /**
+     * Reads a dictionary file and adds it.
+     *
+     * @param file the dictionary file
+     * @return the dictionary read
+     * @throws IOException if file can not be read or is not a dictionary
+     */
+    public HuffDictionary load(File file) throws IOException {
+        HuffDictionary dictionary = HuffDictionary.read(file);
+        register(dictionary);
+        return dictionary;
+    }
+
+    /**
+     * Get a dictionary by id.
+     *
+     * @param id the id stored in a compressed file
+     * @return the dictionary
+     * @throws IOException if no dictionary with that id has been added
+     */
+    public HuffDictionary get(int id) throws IOException {
+        HuffDictionary dictionary = dictionaries.get(id);
+        if (dictionary == null) {
+            throw new IOException("Unknown dictionary " + id + ".");
+        }
+        return dictionary;
+    }
+
+    /**
+     * Removes a dictionary.
+     *
+     * @param id the id of the dictionary
+     */
+    public void remove(int id) {
+        dictionaries.remove(id);
+    }
+}
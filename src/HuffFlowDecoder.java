@@ -0,0 +1,89 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Flow processor that decodes the frames published by HuffFlowEncoder. Each
+ * frame is uncompressed by SimpleHuffProcessor as it completes and the data
+ * is published in buffers of at most chunkSize bytes while it is decoded,
+ * so a large segment does not have to be held uncompressed.
+ */
+public class HuffFlowDecoder extends HuffFlowProcessor {
+
+    /**
+     * Default largest frame accepted, in bytes.
+     */
+    public static final int DEFAULT_MAX_FRAME = 1 << 26;
+
+    private final SimpleHuffProcessor huffer;
+    private final int maxFrame;
+    private final PublishingOutputStream decoded;
+    private final byte[] lengthBytes = new byte[FRAME_BYTES];
+    private int lengthRead;
+    private byte[] frame = new byte[0];
+    private int frameLength = -1;
+    private int frameRead;
+
+    /**
+     * Creates a decoder that publishes buffers of DEFAULT_SEGMENT_SIZE bytes
+     * on the common ForkJoinPool.
+     */
+    public HuffFlowDecoder() {
+        this(new SimpleHuffProcessor(), DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_FRAME,
+                ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * Creates a decoder.
+     *
+     * @param huffer            uncompresses each frame
+     * @param chunkSize         the most bytes published in one buffer
+     * @param maxFrame          the largest frame accepted, in bytes
+     * @param executor          delivers items to subscribers
+     * @param maxBufferCapacity the most items buffered for each subscriber
+     */
+    public HuffFlowDecoder(SimpleHuffProcessor huffer, int chunkSize, int maxFrame,
+            Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        this.huffer = huffer;
+        this.maxFrame = maxFrame;
+        decoded = new PublishingOutputStream(chunkSize);
+    }
+
+    protected void consume(ByteBuffer item) throws IOException {
+        while (item.hasRemaining()) {
+            if (frameLength < 0) {
+                lengthBytes[lengthRead++] = item.get();
+                if (lengthRead == FRAME_BYTES) {
+                    frameLength = ByteBuffer.wrap(lengthBytes).getInt();
+                    lengthRead = 0;
+                    if (frameLength < 0 || frameLength > maxFrame) {
+                        throw new IOException("Invalid frame length " + frameLength);
+                    }
+                    if (frame.length < frameLength) {
+                        frame = new byte[frameLength];
+                    }
+                    frameRead = 0;
+                }
+            } else {
+                int n = Math.min(item.remaining(), frameLength - frameRead);
+                item.get(frame, frameRead, n);
+                frameRead += n;
+            }
+            if (frameLength >= 0 && frameRead == frameLength) {
+                huffer.uncompress(new ByteArrayInputStream(frame, 0, frameLength), decoded);
+                decoded.flush();
+                frameLength = -1;
+            }
+        }
+    }
+
+    protected void finish() throws IOException {
+        if (frameLength >= 0 || lengthRead > 0) {
+            throw new IOException("Stream ends inside a frame.");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Flow processor that Huffman codes a stream of ByteBuffers. The data is
+ * cut into segments of segmentSize bytes and each segment is compressed by
+ * SimpleHuffProcessor into a complete .hf file, which is published as one
+ * buffer framed by its length. HuffFlowDecoder reads this back.
+ */
+public class HuffFlowEncoder extends HuffFlowProcessor {
+    private final SimpleHuffProcessor huffer;
+    private final int headerFormat;
+    private final byte[] segment;
+    private int length;
+    private final CodedSegment coded = new CodedSegment();
+
+    /**
+     * Creates an encoder using the Tree Format with segments of
+     * DEFAULT_SEGMENT_SIZE bytes, publishing on the common ForkJoinPool.
+     */
+    public HuffFlowEncoder() {
+        this(new SimpleHuffProcessor(), IHuffConstants.STORE_TREE, DEFAULT_SEGMENT_SIZE,
+                ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * Creates an encoder.
+     *
+     * @param huffer            compresses each segment, with its word size,
+     *                          transform and match finder settings
+     * @param headerFormat      the header format of each segment
+     * @param segmentSize       the number of bytes per segment
+     * @param executor          delivers items to subscribers
+     * @param maxBufferCapacity the most items buffered for each subscriber
+     */
+    public HuffFlowEncoder(SimpleHuffProcessor huffer, int headerFormat, int segmentSize,
+            Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        this.huffer = huffer;
+        this.headerFormat = headerFormat;
+        segment = new byte[segmentSize];
+    }
+
+    protected void consume(ByteBuffer item) throws IOException {
+        while (item.hasRemaining()) {
+            int n = Math.min(item.remaining(), segment.length - length);
+            item.get(segment, length, n);
+            length += n;
+            if (length == segment.length) {
+                compressSegment();
+            }
+        }
+    }
+
+    protected void finish() throws IOException {
+        if (length > 0) {
+            compressSegment();
+        }
+    }
+
+    // Compresses the bytes in segment and publishes them as one frame.
+    private void compressSegment() throws IOException {
+        CompressionPlan plan = huffer.plan(new ByteArrayInputStream(segment, 0, length),
+                headerFormat);
+        coded.reset();
+        huffer.compress(plan, new ByteArrayInputStream(segment, 0, length), coded, true);
+        publish(coded.array(), 0, coded.size(), true);
+        length = 0;
+    }
+
+    /*
+     * ByteArrayOutputStream that gives access to its array, so the coded
+     * segment is not copied before it is published.
+     */
+    private static class CodedSegment extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base of the Flow processors that Huffman code a stream of ByteBuffers.
+ * <p>
+ * Huffman coding needs the counts of a whole file before it can write
+ * anything, so the stream is coded in segments, each one a complete .hf
+ * file written by SimpleHuffProcessor. On the coded side each segment is
+ * framed by its length in FRAME_BYTES bytes, high byte first.
+ * <p>
+ * Items are requested from upstream one at a time, and the next is only
+ * requested once the last has been handled. Results are published with
+ * submit, which blocks while a subscriber has maxBufferCapacity items it
+ * has not asked for yet. So a slow subscriber slows the upstream down and the
+ * memory used stays bounded. The subscriber should be added before the
+ * upstream publisher starts, since items submitted with no subscribers are
+ * dropped.
+ * <p>
+ * Published buffers come from a pool. The subscriber can give a buffer it is
+ * done with back with release so it is used again. Buffers that are not
+ * given back are simply left for the garbage collector. Since a buffer is
+ * reused once it is released, and its position moves as it is read, a
+ * processor takes only one subscriber; any later one is sent onError with
+ * an IllegalStateException.
+ */
+public abstract class HuffFlowProcessor extends SubmissionPublisher<ByteBuffer>
+        implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    /**
+     * Number of bytes in the length that frames each coded segment.
+     */
+    public static final int FRAME_BYTES = 4;
+
+    /**
+     * Default number of bytes of uncoded data per segment.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    private final BlockingQueue<ByteBuffer> pool;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private Flow.Subscription subscription;
+
+    /**
+     * Creates a processor.
+     *
+     * @param executor          delivers items to subscribers
+     * @param maxBufferCapacity the most items buffered for each subscriber,
+     *                          also the number of buffers kept for reuse
+     */
+    protected HuffFlowProcessor(Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        pool = new ArrayBlockingQueue<>(maxBufferCapacity);
+    }
+
+    /**
+     * Adds the subscriber of this processor. Every subscriber after the
+     * first is sent onError with an IllegalStateException.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber may not be null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "A HuffFlowProcessor publishes to only one subscriber."));
+            return;
+        }
+        super.subscribe(subscriber);
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    public void onNext(ByteBuffer item) {
+        try {
+            consume(item);
+            subscription.request(1);
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            closeExceptionally(e);
+        }
+    }
+
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    public void onComplete() {
+        try {
+            finish();
+            close();
+        } catch (IOException | RuntimeException e) {
+            closeExceptionally(e);
+        }
+    }
+
+    /**
+     * Gives a buffer published by this processor back for reuse. The
+     * buffer must not be used after this call.
+     *
+     * @param buffer a buffer received from this processor
+     */
+    public void release(ByteBuffer buffer) {
+        pool.offer(buffer);
+    }
+
+    /**
+     * Handles the next item from upstream. The item is not kept after
+     * this call returns.
+     *
+     * @param item the next buffer, from its position to its limit
+     * @throws IOException if the data can not be coded
+     */
+    protected abstract void consume(ByteBuffer item) throws IOException;
+
+    /**
+     * Handles the end of the upstream data, publishing anything left.
+     *
+     * @throws IOException if the data can not be coded
+     */
+    protected abstract void finish() throws IOException;
+
+    /**
+     * Get a buffer to publish, from the pool if one there is large enough.
+     *
+     * @param size the number of bytes needed
+     * @return an empty buffer with a limit of size
+     */
+    protected ByteBuffer acquire(int size) {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Publishes len bytes of data, blocking while a subscriber is too far
+     * behind.
+     *
+     * @param data   the bytes to publish
+     * @param offset the first byte
+     * @param len    the number of bytes
+     * @param framed true to put the number of bytes in front of them
+     */
+    protected void publish(byte[] data, int offset, int len, boolean framed) {
+        ByteBuffer buffer = acquire(len + (framed ? FRAME_BYTES : 0));
+        if (framed) {
+            buffer.putInt(len);
+        }
+        buffer.put(data, offset, len);
+        buffer.flip();
+        submit(buffer);
+    }
+
+    /*
+     * OutputStream that publishes what is written to it in buffers of a
+     * fixed size, so a large result is published while it is being made.
+     */
+    protected class PublishingOutputStream extends OutputStream {
+        private final byte[] chunk;
+        private int length;
+
+        /**
+         * Creates a stream that publishes buffers of up to size bytes.
+         *
+         * @param size the number of bytes per buffer
+         */
+        protected PublishingOutputStream(int size) {
+            chunk = new byte[size];
+        }
+
+        public void write(int b) {
+            if (length == chunk.length) {
+                flush();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (length == chunk.length) {
+                    flush();
+                }
+                int n = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Publishes the bytes written since the last flush, if any.
+         */
+        public void flush() {
+            if (length > 0) {
+                publish(chunk, 0, length, false);
+                length = 0;
+            }
+        }
+
+        /**
+         * Publishes what is left. The stream can still be written to after
+         * this, so one stream can take the output of many segments.
+         */
+        public void close() {
+            flush();
+        }
+    }
+}
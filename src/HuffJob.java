@@ -0,0 +1,144 @@
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs a compress, uncompress or preprocess on an Executor and reports the
+ * result through a CompletableFuture.
+ * <p>
+ * Cancelling the future stops the job soon after. The streams the job is
+ * given check the future on every read and write and throw an
+ * InterruptedIOException once it is done, so the processor stops at its
+ * next read or write without having to check for itself. The streams of a
+ * cancelled job are closed. A job cancelled before it starts never runs.
+ */
+public class HuffJob {
+
+    /**
+     * The work of a job, given streams that stop it when it is cancelled.
+     */
+    public interface Task<T> {
+        /**
+         * Does the work of the job.
+         *
+         * @param in  the input of the job
+         * @param out the output of the job, or null if it has none
+         * @return the result of the job
+         * @throws IOException if reading or writing fails or the job is
+         *                     cancelled
+         */
+        T run(InputStream in, OutputStream out) throws IOException;
+    }
+
+    private HuffJob() {
+    }
+
+    /**
+     * Starts a job on executor.
+     *
+     * @param executor runs the job
+     * @param in       the input of the job
+     * @param out      the output of the job, or null if it has none
+     * @param task     the work of the job
+     * @return a future that completes with the result of the job, or
+     *         exceptionally with the exception it threw
+     */
+    public static <T> CompletableFuture<T> submit(Executor executor, InputStream in,
+            OutputStream out, Task<T> task) {
+        CompletableFuture<T> job = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (job.isDone()) {
+                    return;
+                }
+                CheckedInputStream checkedIn = new CheckedInputStream(in, job);
+                CheckedOutputStream checkedOut = out == null ? null
+                        : new CheckedOutputStream(out, job);
+                try {
+                    job.complete(task.run(checkedIn, checkedOut));
+                } catch (Throwable t) {
+                    job.completeExceptionally(t);
+                }
+                if (job.isCancelled()) {
+                    closeQuietly(in);
+                    closeQuietly(out);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            job.completeExceptionally(e);
+        }
+        return job;
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // the job is already over
+            }
+        }
+    }
+
+    private static void check(CompletableFuture<?> job) throws InterruptedIOException {
+        if (job.isDone()) {
+            throw new InterruptedIOException("job cancelled");
+        }
+    }
+
+    /*
+     * InputStream that fails once its job is done.
+     */
+    private static class CheckedInputStream extends FilterInputStream {
+        private final CompletableFuture<?> job;
+
+        CheckedInputStream(InputStream in, CompletableFuture<?> job) {
+            super(in);
+            this.job = job;
+        }
+
+        public int read() throws IOException {
+            check(job);
+            return super.read();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            check(job);
+            return super.read(b, off, len);
+        }
+
+        public long skip(long n) throws IOException {
+            check(job);
+            return super.skip(n);
+        }
+    }
+
+    /*
+     * OutputStream that fails once its job is done.
+     */
+    private static class CheckedOutputStream extends FilterOutputStream {
+        private final CompletableFuture<?> job;
+
+        CheckedOutputStream(OutputStream out, CompletableFuture<?> job) {
+            super(out);
+            this.job = job;
+        }
+
+        public void write(int b) throws IOException {
+            check(job);
+            out.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            check(job);
+            out.write(b, off, len);
+        }
+    }
+}
@@ -4,6 +4,10 @@ import javax.swing.JOptionPane;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
 
 public class HuffMark {
     protected static JFileChooser ourOpenChooser = new JFileChooser(System
@@ -61,9 +65,97 @@ public class HuffMark {
         }
     }
     
+    /**
+     * Compresses every file under a directory and its subdirectories
+     * without a GUI, on a pool of threads.
+     * 
+     * @param dir the directory to compress
+     * @param threads the number of threads to compress on
+     */
+    public void doMark(File dir, int threads) {
+        HuffBatch batch = new HuffBatch(IHuffProcessor.STORE_COUNTS, threads);
+        batch.run(dir);
+        batch.printTotals();
+        batch.shutdown();
+    }
+    
+    /**
+     * Compresses the files under a directory that changed since the last
+     * run with the same index, without a GUI, on a pool of threads.
+     * 
+     * @param dir the directory to compress
+     * @param threads the number of threads to compress on
+     * @param indexFile where the index of files compressed is kept
+     * @throws IOException if the index can not be read
+     */
+    public void doMark(File dir, int threads, File indexFile) throws IOException {
+        HuffBatch batch = new HuffBatch(IHuffProcessor.STORE_COUNTS, threads);
+        batch.setIndex(new HuffBatchIndex(indexFile, IHuffProcessor.STORE_COUNTS));
+        batch.run(dir);
+        batch.printTotals();
+        batch.shutdown();
+    }
+    
+    /**
+     * Checks every .hf file under a directory and its subdirectories by
+     * uncompressing it without writing the result, in parallel. Files with
+     * a checksum are checked against it.
+     * 
+     * @param dir the directory to check
+     * @return the number of files that are damaged or can not be read
+     */
+    public long doVerify(File dir) throws IOException {
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths.filter(p -> p.toString().endsWith(SUFFIX)).parallel().filter(p -> {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(p.toFile()))) {
+                    boolean checked = huffer.verify(in);
+                    System.out.println(p + (checked ? "\tOK" : "\tOK, no checksum"));
+                    return false;
+                } catch (IOException | RuntimeException e) {
+                    System.out.println(p + "\tFAILED: " + e.getMessage());
+                    return true;
+                }
+            }).count();
+        }
+    }
+    
+    /**
+     * With no arguments, chooses a directory and compresses the files in it.
+     * With a directory argument, and optionally a number of threads,
+     * compresses everything under that directory without a GUI. Adding
+     * -index and a file keeps an index there so later runs skip files that
+     * have not changed.
+     * With -bench and a directory, runs HuffMarkRunner on it.
+     * With -verify and a directory, checks the .hf files under it and exits
+     * with status 1 if any are damaged.
+     */
     public static void main(String[] args) throws IOException{
         HuffMark hf = new HuffMark();
-        hf.doMark();
+        if (args.length > 0 && args[0].equals("-bench")){
+            HuffMarkRunner.main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 1 && args[0].equals("-verify")){
+            if (hf.doVerify(new File(args[1])) > 0){
+                System.exit(1);
+            }
+        } else if (args.length > 0){
+            int threads = Runtime.getRuntime().availableProcessors();
+            File indexFile = null;
+            for (int i = 1; i < args.length; i++){
+                if (args[i].equals("-index") && i + 1 < args.length){
+                    indexFile = new File(args[++i]);
+                } else {
+                    threads = Integer.parseInt(args[i]);
+                }
+            }
+            if (indexFile != null){
+                hf.doMark(new File(args[0]), threads, indexFile);
+            } else {
+                hf.doMark(new File(args[0]), threads);
+            }
+        } else {
+            hf.doMark();
+        }
     }
     
     
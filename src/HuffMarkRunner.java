@@ -0,0 +1,386 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Repeatable end-to-end benchmark for HuffMark. Every file under a corpus
+ * directory is compressed and uncompressed in memory with each header format,
+ * and optionally with java.util.zip.Deflater as a baseline, and the result of
+ * each round trip is checked against the original.
+ * <p>
+ * Files are read once before timing starts, so disk speed does not count.
+ * The whole corpus is run warmups times untimed so the JIT has compiled the
+ * code, then iterations times timed. For each format the totals, the ratio,
+ * MB/s each way and the median and 99th percentile time per file are
+ * written as JSON, so the results of two releases can be compared by a
+ * script.
+ * <p>
+ * Usage: java HuffMark -bench dir [-w warmups] [-i iterations]
+ * [-f counts,tree,sparse,context,lz77] [-deflate] [-o file.json]
+ */
+public class HuffMarkRunner {
+
+    /**
+     * Default numbers of untimed and timed passes over the corpus.
+     */
+    public static final int DEFAULT_WARMUPS = 2;
+    public static final int DEFAULT_ITERATIONS = 5;
+
+    private static final String DEFLATE = "deflate";
+    private static final String SUFFIX = ".hf";
+    private static final Map<String, Integer> FORMATS = new LinkedHashMap<>();
+    static {
+        FORMATS.put("counts", IHuffConstants.STORE_COUNTS);
+        FORMATS.put("tree", IHuffConstants.STORE_TREE);
+        FORMATS.put("sparse", IHuffConstants.STORE_SPARSE);
+        FORMATS.put("context", IHuffConstants.STORE_CONTEXT);
+        FORMATS.put("lz77", IHuffConstants.STORE_LZ77);
+    }
+
+    private final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+    private int warmups = DEFAULT_WARMUPS;
+    private int iterations = DEFAULT_ITERATIONS;
+    private List<String> formats = new ArrayList<>(FORMATS.keySet());
+    private boolean deflate;
+
+    /*
+     * The measurements of one format over all files and iterations.
+     */
+    private static class Result {
+        private final String format;
+        private long files;
+        private long bytes;
+        private long compressedBytes;
+        private long compressNanos;
+        private long uncompressNanos;
+        private long failures;
+        private long errors;
+        private final List<Long> compressLatencies = new ArrayList<>();
+        private final List<Long> uncompressLatencies = new ArrayList<>();
+
+        Result(String format) {
+            this.format = format;
+        }
+    }
+
+    /*
+     * One way of compressing, Huffman with a header format or deflate.
+     */
+    private interface Codec {
+        byte[] compress(byte[] data) throws IOException;
+
+        byte[] uncompress(byte[] compressed, int originalLength) throws IOException;
+    }
+
+    /**
+     * Set the number of untimed passes over the corpus.
+     *
+     * @param warmups the number of passes, 0 or more
+     */
+    public void setWarmups(int warmups) {
+        this.warmups = warmups;
+    }
+
+    /**
+     * Set the number of timed passes over the corpus.
+     *
+     * @param iterations the number of passes, 1 or more
+     */
+    public void setIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * Set the header formats to measure, by name: counts, tree, sparse,
+     * context or lz77.
+     *
+     * @param names the formats
+     */
+    public void setFormats(List<String> names) {
+        for (String name : names) {
+            if (!FORMATS.containsKey(name)) {
+                throw new IllegalArgumentException("unknown format " + name);
+            }
+        }
+        formats = new ArrayList<>(names);
+    }
+
+    /**
+     * Set whether Deflater is measured too, as a baseline.
+     *
+     * @param deflate true to add a deflate result
+     */
+    public void setDeflate(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    /**
+     * Runs the benchmark on every file under dir and writes the results as
+     * JSON.
+     *
+     * @param dir the corpus directory
+     * @param out where the JSON is written
+     * @throws IOException if the corpus can not be read or out written
+     */
+    public void run(File dir, Writer out) throws IOException {
+        List<File> files = new ArrayList<>();
+        listFiles(dir, files);
+        List<byte[]> corpus = new ArrayList<>();
+        long corpusBytes = 0;
+        for (File f : files) {
+            byte[] data = Files.readAllBytes(f.toPath());
+            corpus.add(data);
+            corpusBytes += data.length;
+        }
+        List<Result> results = new ArrayList<>();
+        for (String name : formats) {
+            results.add(measure(name, huffmanCodec(FORMATS.get(name)), corpus));
+        }
+        if (deflate) {
+            results.add(measure(DEFLATE, deflateCodec(), corpus));
+        }
+        writeJson(out, dir, corpus.size(), corpusBytes, results);
+        out.flush();
+    }
+
+    private static void listFiles(File dir, List<File> files) throws IOException {
+        File[] list = dir.listFiles();
+        if (list == null) {
+            throw new IOException("can not list " + dir);
+        }
+        Arrays.sort(list);
+        for (File f : list) {
+            if (f.isDirectory()) {
+                listFiles(f, files);
+            } else if (!f.getName().endsWith(SUFFIX)) {
+                files.add(f);
+            }
+        }
+    }
+
+    private Result measure(String name, Codec codec, List<byte[]> corpus) {
+        for (int i = 0; i < warmups; i++) {
+            pass(codec, corpus, new Result(name));
+        }
+        Result result = new Result(name);
+        for (int i = 0; i < iterations; i++) {
+            pass(codec, corpus, result);
+        }
+        return result;
+    }
+
+    // Compresses and uncompresses every file once, adding to result.
+    private void pass(Codec codec, List<byte[]> corpus, Result result) {
+        for (byte[] data : corpus) {
+            try {
+                long start = System.nanoTime();
+                byte[] compressed = codec.compress(data);
+                long middle = System.nanoTime();
+                byte[] restored = codec.uncompress(compressed, data.length);
+                long end = System.nanoTime();
+                result.files++;
+                result.bytes += data.length;
+                result.compressedBytes += compressed.length;
+                result.compressNanos += middle - start;
+                result.uncompressNanos += end - middle;
+                result.compressLatencies.add(middle - start);
+                result.uncompressLatencies.add(end - middle);
+                if (!Arrays.equals(data, restored)) {
+                    result.failures++;
+                }
+            } catch (IOException | RuntimeException e) {
+                // e.g. an empty file, which the Huffman formats can not hold
+                result.errors++;
+            }
+        }
+    }
+
+    private Codec huffmanCodec(int headerFormat) {
+        return new Codec() {
+            public byte[] compress(byte[] data) throws IOException {
+                CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data), headerFormat);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                huffer.compress(plan, new ByteArrayInputStream(data), out, true);
+                return out.toByteArray();
+            }
+
+            public byte[] uncompress(byte[] compressed, int originalLength) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(originalLength);
+                huffer.uncompress(new ByteArrayInputStream(compressed), out);
+                return out.toByteArray();
+            }
+        };
+    }
+
+    private static Codec deflateCodec() {
+        return new Codec() {
+            public byte[] compress(byte[] data) {
+                Deflater deflater = new Deflater();
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[1 << 16];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                deflater.end();
+                return out.toByteArray();
+            }
+
+            public byte[] uncompress(byte[] compressed, int originalLength) throws IOException {
+                Inflater inflater = new Inflater();
+                inflater.setInput(compressed);
+                byte[] result = new byte[originalLength];
+                try {
+                    int length = 0;
+                    while (!inflater.finished() && length < originalLength) {
+                        length += inflater.inflate(result, length, originalLength - length);
+                    }
+                    return length == originalLength ? result : Arrays.copyOf(result, length);
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    // Get the p-th percentile, 0 to 1, of values, nearest rank.
+    private static long percentile(List<Long> values, double p) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0.0 : bytes * 1e9 / nanos / (1 << 20);
+    }
+
+    private void writeJson(Writer out, File dir, int files, long corpusBytes, List<Result> results)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": ").append(quote(Instant.now().toString())).append(",\n");
+        json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+        json.append("  \"os\": ").append(quote(System.getProperty("os.name") + " "
+                + System.getProperty("os.arch"))).append(",\n");
+        json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(",\n");
+        json.append("  \"corpus\": ").append(quote(dir.getPath())).append(",\n");
+        json.append("  \"files\": ").append(files).append(",\n");
+        json.append("  \"bytes\": ").append(corpusBytes).append(",\n");
+        json.append("  \"warmups\": ").append(warmups).append(",\n");
+        json.append("  \"iterations\": ").append(iterations).append(",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\n");
+            json.append("      \"format\": ").append(quote(r.format)).append(",\n");
+            json.append("      \"runs\": ").append(r.files).append(",\n");
+            json.append("      \"bytes\": ").append(r.bytes).append(",\n");
+            json.append("      \"compressedBytes\": ").append(r.compressedBytes).append(",\n");
+            json.append("      \"ratio\": ").append(number(r.bytes == 0 ? 0.0
+                    : 1.0 * r.compressedBytes / r.bytes)).append(",\n");
+            json.append("      \"compressMBps\": ")
+                    .append(number(megabytesPerSecond(r.bytes, r.compressNanos))).append(",\n");
+            json.append("      \"uncompressMBps\": ")
+                    .append(number(megabytesPerSecond(r.bytes, r.uncompressNanos))).append(",\n");
+            json.append("      \"compressP50Micros\": ")
+                    .append(number(percentile(r.compressLatencies, 0.5) / 1e3)).append(",\n");
+            json.append("      \"compressP99Micros\": ")
+                    .append(number(percentile(r.compressLatencies, 0.99) / 1e3)).append(",\n");
+            json.append("      \"uncompressP50Micros\": ")
+                    .append(number(percentile(r.uncompressLatencies, 0.5) / 1e3)).append(",\n");
+            json.append("      \"uncompressP99Micros\": ")
+                    .append(number(percentile(r.uncompressLatencies, 0.99) / 1e3)).append(",\n");
+            json.append("      \"roundTripFailures\": ").append(r.failures).append(",\n");
+            json.append("      \"errors\": ").append(r.errors).append("\n");
+            json.append("    }");
+        }
+        json.append("\n  ]\n}\n");
+        out.write(json.toString());
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Runs the benchmark from command line arguments, as given to HuffMark
+     * after -bench.
+     *
+     * @param args the corpus directory and options
+     * @throws IOException if the corpus can not be read or the JSON written
+     */
+    public static void main(String[] args) throws IOException {
+        HuffMarkRunner runner = new HuffMarkRunner();
+        File dir = null;
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w")) {
+                runner.setWarmups(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-i")) {
+                runner.setIterations(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-f")) {
+                runner.setFormats(Arrays.asList(args[++i].split(",")));
+            } else if (args[i].equals("-deflate")) {
+                runner.setDeflate(true);
+            } else if (args[i].equals("-o")) {
+                output = args[++i];
+            } else {
+                dir = new File(args[i]);
+            }
+        }
+        if (dir == null) {
+            System.err.println("usage: HuffMark -bench dir [-w warmups] [-i iterations] "
+                    + "[-f counts,tree,sparse,context,lz77] [-deflate] [-o file.json]");
+            return;
+        }
+        if (output == null) {
+            Writer out = new OutputStreamWriter(System.out);
+            runner.run(dir, out);
+        } else {
+            try (Writer out = new FileWriter(output)) {
+                runner.run(dir, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one phase of compressing or uncompressing, so a
+ * recording shows whether time goes to counting, building tables, writing
+ * the header or coding the body.
+ * <p>
+ * An event is made with begin at the start of a phase and given to commit,
+ * which fills in the fields only if the event will be recorded. When Flight
+ * Recorder is not recording this event, shouldCommit is false and the JIT
+ * removes the event object, so the events can stay in production code.
+ * Stack traces are off since the phase already says where the event is from.
+ */
+@Name("huffman.Phase")
+@Label("Huffman Phase")
+@Category("Huffman")
+@Description("A phase of compressing or uncompressing a file")
+@StackTrace(false)
+public class HuffPhaseEvent extends jdk.jfr.Event {
+
+    /**
+     * Phase names.
+     */
+    public static final String PLAN = "plan";
+    public static final String COUNT = "count";
+    public static final String BUILD_TABLES = "buildTables";
+    public static final String WRITE_HEADER = "writeHeader";
+    public static final String COMPRESS_BODY = "compressBody";
+    public static final String READ_HEADER = "readHeader";
+    public static final String UNCOMPRESS_BODY = "uncompressBody";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Header Format")
+    int headerFormat;
+
+    @Label("Bytes")
+    @Description("Bytes of uncompressed data handled by the phase")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+
+    @Label("Bits")
+    @Description("Bits of compressed data written by the phase, 0 when reading")
+    @DataAmount(DataAmount.BITS)
+    long bits;
+
+    @Label("Symbols")
+    @Description("Number of symbols in the code table, 0 if there is none")
+    int symbols;
+
+    @Label("Max Code Length")
+    @Description("Longest code in the code table, 0 if there is none")
+    int maxCodeLength;
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return the event, to pass to commit at the end of the phase
+     */
+    public static HuffPhaseEvent start() {
+        HuffPhaseEvent event = new HuffPhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends a phase and records it if Flight Recorder wants this event.
+     *
+     * @param phase         the name of the phase
+     * @param headerFormat  the header format, without TRANSFORM_FLAG
+     * @param bytes         bytes of uncompressed data handled
+     * @param bits          bits of compressed data written, or 0
+     * @param table         the code table used, or null
+     */
+    public void commit(String phase, int headerFormat, long bytes, long bits, CodeTable table) {
+        end();
+        if (shouldCommit()) {
+            this.phase = phase;
+            this.headerFormat = headerFormat;
+            this.bytes = bytes;
+            this.bits = bits;
+            if (table != null) {
+                symbols = table.getNumSymbols();
+                maxCodeLength = table.getMaxLength();
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,558 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long running server that compresses, uncompresses and verifies for
+ * other processes, so they do not each pay for starting a JVM and warming
+ * up the coder. It listens on a loopback TCP port or a Unix domain socket.
+ * <p>
+ * A connection carries any number of requests, one after another. A
+ * request is one byte, COMPRESS, UNCOMPRESS or VERIFY, then for COMPRESS
+ * the header format as an int, a byte of flags (CHECKSUM_REQUESTED) and,
+ * for the Dictionary Format, the int id of a dictionary loaded by the
+ * server. Then comes the payload, as chunks of an int length and that
+ * many bytes, ended by a chunk of length 0. All ints are big-endian.
+ * <p>
+ * The response is the output in chunks the same way, then 0 if the request
+ * succeeded, or -1 and a message written as by DataOutputStream.writeUTF if
+ * it failed, in which case the chunks before it should be thrown away. The
+ * output of VERIFY is one byte, 1 if the file had a checksum and 0 if it
+ * did not. HuffClient speaks this protocol for Java programs.
+ * <p>
+ * Payloads are streamed. COMPRESS codes the payload in blocks of
+ * BLOCK_SIZE bytes, each written as its own segment as soon as it is read,
+ * and uncompress decodes the segments one after another. So neither side
+ * holds a whole payload, and a response starts before its request ends.
+ * <p>
+ * Each connection is served by one thread of the executor, with blocking
+ * channels. On a JVM with virtual threads, setExecutor can be given a
+ * virtual thread per task executor so idle connections cost no platform
+ * threads. Each connection keeps its processor and buffers between
+ * requests, and codes Sparse Format requests without a checksum with a
+ * HuffCodec, which writes the same bytes without building a plan.
+ * Dictionaries are read once at start and shared by every connection, and
+ * the counts of CodecMetrics cover every request.
+ * <p>
+ * Usage: java HuffServer [-port n | -unix path] [-dict file] ...
+ */
+public class HuffServer implements Closeable, IHuffConstants {
+
+    /**
+     * Request to compress the payload.
+     */
+    public static final int COMPRESS = 'C';
+
+    /**
+     * Request to uncompress the payload.
+     */
+    public static final int UNCOMPRESS = 'U';
+
+    /**
+     * Request to check the payload uncompresses, and its checksum if it has one.
+     */
+    public static final int VERIFY = 'V';
+
+    /**
+     * Flag asking COMPRESS to add a checksum to each segment.
+     */
+    public static final int CHECKSUM_REQUESTED = 1;
+
+    /**
+     * Number of bytes COMPRESS codes as one segment.
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Port used by main unless another is given.
+     */
+    public static final int DEFAULT_PORT = 8200;
+
+    // largest chunk written, and buffer size of each connection
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final HuffDictionaryRegistry dictionaries;
+    private volatile Executor executor;
+    private ExecutorService ownExecutor;
+    private Thread acceptor;
+
+    /**
+     * Opens a server on an address. Nothing is accepted until start.
+     *
+     * @param address      a loopback InetSocketAddress, or a
+     *                     UnixDomainSocketAddress whose file does not exist
+     * @param dictionaries the dictionaries requests may use
+     * @throws IOException if the address can not be bound
+     * @throws IllegalArgumentException if address is not a loopback or Unix
+     *                                  domain address, since requests are
+     *                                  not authenticated
+     */
+    public HuffServer(SocketAddress address, HuffDictionaryRegistry dictionaries)
+            throws IOException {
+        if (!isLocal(address)) {
+            throw new IllegalArgumentException("The server only listens on a loopback or Unix "
+                    + "domain address, not " + address);
+        }
+        this.dictionaries = dictionaries;
+        if (address instanceof UnixDomainSocketAddress) {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        this.address = server.getLocalAddress();
+    }
+
+    // Is address one only processes on this machine can connect to.
+    private static boolean isLocal(SocketAddress address) {
+        if (address instanceof UnixDomainSocketAddress) {
+            return true;
+        }
+        if (address instanceof InetSocketAddress) {
+            InetAddress host = ((InetSocketAddress) address).getAddress();
+            return host != null && host.isLoopbackAddress();
+        }
+        return false;
+    }
+
+    /**
+     * Get the address the server is bound to, with the actual port if it
+     * was opened on port 0.
+     *
+     * @return the address
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Set the executor connections are served on. A cached pool of daemon
+     * threads is used unless this is called before start.
+     *
+     * @param executor runs one task per connection, for as long as the
+     *                 connection is open
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts accepting connections on a thread of its own.
+     */
+    public synchronized void start() {
+        if (acceptor != null) {
+            throw new IllegalStateException("server already started");
+        }
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            ownExecutor = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "huff-connection-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = ownExecutor;
+        }
+        acceptor = new Thread(this::accept, "huff-accept");
+        acceptor.start();
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Stops accepting connections. Connections already open are served
+     * until their clients close them.
+     *
+     * @throws IOException if the server can not be closed
+     */
+    public void close() throws IOException {
+        server.close();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+        synchronized (this) {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                try {
+                    executor.execute(() -> serve(channel));
+                } catch (RejectedExecutionException e) {
+                    // no thread to serve it, so drop this connection only
+                    channel.close();
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed, stop accepting
+        } catch (IOException e) {
+            System.err.println("huff server stopped: " + e);
+        }
+    }
+
+    // Serves the requests of one connection until the client closes it.
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            noDelay(channel);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new ChannelInputStream(channel), CHUNK_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new ChannelOutputStream(channel), CHUNK_SIZE));
+            Session session = new Session();
+            SimpleHuffProcessor huffer = session.huffer;
+            ChunkOutputStream response = new ChunkOutputStream(out);
+            int op = in.read();
+            while (op != -1) {
+                ChunkInputStream request = new ChunkInputStream(in);
+                try {
+                    if (op == COMPRESS) {
+                        session.compress(in, request, response);
+                    } else if (op == UNCOMPRESS) {
+                        huffer.uncompress(request, response);
+                    } else if (op == VERIFY) {
+                        response.write(huffer.verify(request) ? 1 : 0);
+                    } else {
+                        // the rest of the request can not be framed
+                        out.writeInt(-1);
+                        out.writeUTF("Unknown request " + op + ".");
+                        out.flush();
+                        return;
+                    }
+                    response.finish();
+                    out.writeInt(0);
+                } catch (IOException | RuntimeException e) {
+                    // skip the rest of the payload so the next request is
+                    // read from its start; fails if the connection is lost
+                    request.drain();
+                    response.finish();
+                    out.writeInt(-1);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+                op = in.read();
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to answer
+        }
+    }
+
+    // Sends small responses at once rather than waiting to fill a packet,
+    // on TCP where there is such a wait.
+    static void noDelay(SocketChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    /*
+     * What one connection keeps between its requests: a processor, and the
+     * buffers and codec used to compress, which are made when first needed.
+     */
+    private class Session {
+        private final SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        private HuffCodec codec;
+        private byte[] block;
+        private byte[] packed = new byte[0];
+
+        Session() {
+            huffer.setDictionaries(dictionaries);
+        }
+
+        // Compresses the payload of a COMPRESS request one block at a time,
+        // each block as its own segment.
+        void compress(DataInputStream in, ChunkInputStream request, ChunkOutputStream response)
+                throws IOException {
+            int format = in.readInt();
+            int flags = in.readUnsignedByte();
+            HuffDictionary dictionary = null;
+            if (format == STORE_DICTIONARY) {
+                dictionary = dictionaries.get(in.readInt());
+            }
+            boolean checksummed = (flags & CHECKSUM_REQUESTED) != 0;
+            huffer.setChecksum(checksummed);
+            huffer.setDictionary(dictionary);
+            if (block == null) {
+                block = new byte[BLOCK_SIZE];
+            }
+            int segments = 0;
+            int n;
+            do {
+                n = request.readNBytes(block, 0, block.length);
+                if (n > 0 || segments == 0) {
+                    if (format == STORE_SPARSE && !checksummed) {
+                        compressSparse(n, response);
+                    } else {
+                        CompressionPlan plan = huffer.plan(new ByteArrayInputStream(block, 0, n),
+                                format);
+                        huffer.compress(plan, new ByteArrayInputStream(block, 0, n), response,
+                                true);
+                    }
+                    segments++;
+                }
+            } while (n == block.length);
+        }
+
+        // Compresses n bytes of block with a HuffCodec, which writes the
+        // same bytes as the processor without building a plan or any
+        // streams, and so answers small requests several times faster.
+        private void compressSparse(int n, ChunkOutputStream response) throws IOException {
+            long start = System.nanoTime();
+            if (codec == null) {
+                codec = new HuffCodec();
+            }
+            int bound = HuffCodec.compressBound(n);
+            if (packed.length < bound) {
+                packed = new byte[bound];
+            }
+            int length = codec.compress(block, 0, n, packed, 0);
+            response.write(packed, 0, length);
+            CodecMetrics.getDefault().record(CodecMetrics.COMPRESS, STORE_SPARSE, n, length,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Reads the chunks of a payload as one stream, which ends at the chunk
+     * of length 0. Closing it does not close the connection.
+     */
+    static class ChunkInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean ended;
+
+        ChunkInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!next()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("Connection closed in the middle of a chunk.");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        public void close() {
+        }
+
+        // Reads the rest of the payload and throws it away.
+        void drain() throws IOException {
+            while (next()) {
+                in.skipNBytes(remaining);
+                remaining = 0;
+            }
+        }
+
+        // Starts the next chunk if this one is used up. Returns false at the
+        // end of the payload.
+        private boolean next() throws IOException {
+            while (remaining == 0 && !ended) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid chunk length " + length + ".");
+                }
+                remaining = length;
+                ended = length == 0;
+            }
+            return !ended;
+        }
+    }
+
+    /*
+     * Writes a stream as chunks of at most CHUNK_SIZE bytes. Flushing sends
+     * what has been written so far, and closing only flushes, so an output
+     * closed by the processor does not end the payload. After finish it can
+     * be used for the next payload.
+     */
+    static class ChunkOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+
+        // Writes what is buffered, without the chunk of length 0 that ends
+        // the payload.
+        void finish() throws IOException {
+            writeChunk();
+        }
+
+        private void writeChunk() throws IOException {
+            if (count > 0) {
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+    /*
+     * Reads a SocketChannel. Unlike the streams of Channels, reading does
+     * not lock out a ChannelOutputStream writing the same channel on
+     * another thread.
+     */
+    static class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /*
+     * Writes a SocketChannel, see ChannelInputStream.
+     */
+    static class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                DEFAULT_PORT);
+        HuffDictionaryRegistry dictionaries = new HuffDictionaryRegistry();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-unix") && i + 1 < args.length) {
+                address = UnixDomainSocketAddress.of(args[++i]);
+            } else if (args[i].equals("-dict") && i + 1 < args.length) {
+                HuffDictionary dictionary = dictionaries.load(new File(args[++i]));
+                System.out.println("loaded dictionary " + dictionary.getId());
+            } else {
+                System.err.println("Usage: java HuffServer [-port n | -unix path] [-dict file] ...");
+                System.exit(2);
+            }
+        }
+        HuffServer server = new HuffServer(address, dictionaries);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // exiting anyway
+            }
+        }));
+        server.start();
+        System.out.println("listening on " + server.getAddress());
+        server.join();
+    }
+}
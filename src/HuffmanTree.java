@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -37,48 +38,6 @@ public class HuffmanTree {
         root = pQueue.dequeue();
     }
 
-    /**
-     * Constructor from a String containing the Standard Tree Format representation
-     * of a HuffmanTree
-     * 
-     * @param standardTreeFormat
-     */
-    public HuffmanTree(String standardTreeFormat) {
-        root = addNodes(standardTreeFormat, new int[1]);
-    }
-
-    /**
-     * Helper for Standard Tree Format constructor
-     * Builds a tree from a String containing the Standard Tree Format of a
-     * HuffmanTree
-     * 
-     * @param STF          Standard Tree Format representation of a HuffmanTree
-     * @param currentIndex the index of STF currently being analyzed
-     * @return the root of the sub-tree created in this iteration of the method
-     */
-    private TreeNode addNodes(String STF, int[] currentIndex) {
-        TreeNode branch;
-        char c = STF.charAt(currentIndex[0]);
-        if (c == '0') {
-            branch = new TreeNode(0, 0);
-            currentIndex[0]++;
-            branch.setLeft(addNodes(STF, currentIndex));
-            branch.setRight(addNodes(STF, currentIndex));
-        } else if (c == '1') {
-            currentIndex[0]++;
-            String valueString = STF.substring(currentIndex[0],
-                    currentIndex[0] + IHuffConstants.BITS_PER_WORD + 1);
-            int value = Integer.parseInt(valueString, 2);
-            branch = new TreeNode(value, 0);
-            numValues++;
-            currentIndex[0] += 9;
-        } else {
-            throw new IllegalArgumentException("STF must only contain 0 or 1");
-        }
-        size++;
-        return branch;
-    }
-
     /**
      * Creates a Map that ties every int value to a tree path encoding
      * 
@@ -112,6 +71,45 @@ public class HuffmanTree {
         }
     }
 
+    /**
+     * Creates a CodeTable with the path to every value in this HuffmanTree.
+     * The paths are stored as bits rather than Strings, so each one can be
+     * written or matched without building a String per value.
+     *
+     * @return a CodeTable for values 0 to PSEUDO_EOF
+     */
+    public CodeTable getCodeTable() {
+        int[] lengths = new int[IHuffConstants.PSEUDO_EOF + 1];
+        long[] codes = new long[lengths.length];
+        addCodes(root, 0, 0, lengths, codes);
+        return new CodeTable(lengths, codes);
+    }
+
+    /**
+     * Helper for getCodeTable
+     * Traverses the tree and stores the path to every leaf as a code
+     *
+     * @param currentNode the current TreeNode being traversed
+     * @param code        the path taken so far, one bit per level
+     * @param depth       the number of bits in code
+     * @param lengths     where the length of each path is stored
+     * @param codes       where each path is stored
+     */
+    private void addCodes(TreeNode currentNode, long code, int depth,
+            int[] lengths, long[] codes) {
+        if (currentNode.isLeaf()) {
+            int value = currentNode.getValue();
+            if (value >= lengths.length || depth > Long.SIZE) {
+                throw new IllegalStateException("leaf " + value + " can not be encoded");
+            }
+            lengths[value] = depth;
+            codes[value] = code;
+        } else {
+            addCodes(currentNode.getLeft(), code << 1, depth + 1, lengths, codes);
+            addCodes(currentNode.getRight(), (code << 1) | 1, depth + 1, lengths, codes);
+        }
+    }
+
     /**
      *
      * @return
@@ -136,38 +134,96 @@ public class HuffmanTree {
     }
 
     /**
-     * Returns a binary representation of this HuffmanTree using Standard Tree
-     * Format
-     * 
-     * @return a String with the Standard Tree Format representation
+     * Writes this tree in Standard Tree Format straight to a BitOutputStream,
+     * with one writeBits call per node and no String of its bits.
+     *
+     * @param out the stream the tree is written to
+     * @return the number of bits written, the same as getBitSize
      */
-    public String getBitRepresentation() {
-        StringBuilder sb = new StringBuilder();
-        getBits(root, sb);
-        return sb.toString();
+    public int writeBits(BitOutputStream out) {
+        return writeBits(root, out);
     }
 
     /**
-     * Helper for getBitRepresentation
-     * Traverses the tree and builds a string form the tree based off the Standard
-     * Tree Format
-     * 
-     * @param currentNode current TreeNode being traversed
-     * @param sb          StringBuilder object that will contain the bit
-     *                    representation
+     * Helper for writeBits
+     * Writes a 0 for an internal node followed by its children, or a 1 and
+     * the value of a leaf
+     *
+     * @param currentNode current TreeNode being written
+     * @param out         the stream the tree is written to
+     * @return the number of bits written for this sub-tree
      */
-    private void getBits(TreeNode currentNode, StringBuilder sb) {
+    private int writeBits(TreeNode currentNode, BitOutputStream out) {
         if (currentNode.isLeaf()) {
-            String valueBinary = Integer.toBinaryString(currentNode.getValue());
-            while (valueBinary.length() < IHuffConstants.BITS_PER_WORD + 1) {
-                valueBinary = '0' + valueBinary;
+            int leafBits = IHuffConstants.BITS_PER_WORD + 2;
+            out.writeBits(leafBits, (1 << (leafBits - 1)) | currentNode.getValue());
+            return leafBits;
+        }
+        out.writeBits(1, 0);
+        return 1 + writeBits(currentNode.getLeft(), out) + writeBits(currentNode.getRight(), out);
+    }
+
+    /**
+     * Reads a tree in Standard Tree Format straight from a BitInputStream
+     * into a CodeTable, without building the tree or a String of its bits.
+     *
+     * @param in      the stream, positioned at the start of the tree
+     * @param bitSize the number of bits in the tree, as stored before it
+     * @return a CodeTable for values 0 to PSEUDO_EOF
+     * @throws IOException if the tree is truncated, is not bitSize bits or
+     *                     is not a valid tree
+     */
+    public static CodeTable readCodeTable(BitInputStream in, int bitSize) throws IOException {
+        int[] lengths = new int[IHuffConstants.PSEUDO_EOF + 1];
+        long[] codes = new long[lengths.length];
+        int bitsRead = readCodes(in, 0, 0, lengths, codes);
+        if (bitsRead != bitSize) {
+            throw new IOException("Tree header has " + bitsRead + " bits, not " + bitSize + ".");
+        }
+        return new CodeTable(lengths, codes);
+    }
+
+    /**
+     * Helper for readCodeTable
+     * Reads one sub-tree and stores the path to every leaf in it as a code
+     *
+     * @param in      the stream the tree is read from
+     * @param code    the path taken so far, one bit per level
+     * @param depth   the number of bits in code
+     * @param lengths where the length of each path is stored
+     * @param codes   where each path is stored
+     * @return the number of bits read for this sub-tree
+     */
+    private static int readCodes(BitInputStream in, long code, int depth,
+            int[] lengths, long[] codes) throws IOException {
+        int bit = in.readBits(1);
+        if (bit < 0) {
+            throw new IOException("Tree header is truncated.");
+        } else if (bit == 0) {
+            if (depth == Long.SIZE) {
+                throw new IOException("Tree header is too deep.");
             }
-            sb.append('1' + valueBinary);
-        } else {
-            sb.append('0');
-            getBits(currentNode.getLeft(), sb);
-            getBits(currentNode.getRight(), sb);
+            return 1 + readCodes(in, code << 1, depth + 1, lengths, codes)
+                    + readCodes(in, (code << 1) | 1, depth + 1, lengths, codes);
         }
+        int value = in.readBits(IHuffConstants.BITS_PER_WORD + 1);
+        if (value < 0) {
+            throw new IOException("Tree header is truncated.");
+        } else if (value >= lengths.length || lengths[value] != 0 || depth == 0) {
+            throw new IOException("Invalid value " + value + " in tree header.");
+        }
+        lengths[value] = depth;
+        codes[value] = code;
+        return IHuffConstants.BITS_PER_WORD + 2;
+    }
+
+    /**
+     * Get the number of bits in the Standard Tree Format of this tree
+     *
+     * @return one bit per node plus the value of each leaf
+     */
+    public int getBitSize() {
+        return size + numValues * (IHuffConstants.BITS_PER_WORD + 1);
     }
 
     /**
@@ -0,0 +1,25 @@
+/**
+ * A reversible transform applied to a block of bytes before it is
+ * compressed. Transforms do not compress anything themselves, they
+ * rearrange or recode the data so a Huffman code does better on it.
+ * Transforms are chained by a TransformPipeline.
+ */
+public interface IByteTransform {
+
+    /**
+     * Transform a block of data.
+     * @param data the block, only the first length bytes are used
+     * @param length the number of bytes in the block
+     * @return the transformed block, exactly as long as the result
+     */
+    public byte[] forward(byte[] data, int length);
+
+    /**
+     * Undo forward.
+     * @param data a block returned by forward, only the first length bytes are used
+     * @param length the number of bytes in the block
+     * @return the original block, exactly as long as the original
+     * @throws IllegalArgumentException if data was not produced by forward
+     */
+    public byte[] inverse(byte[] data, int length);
+}
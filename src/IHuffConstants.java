@@ -60,4 +60,77 @@ public interface IHuffConstants {
      * besides Standard Count Format or Standard Tree Format.
      */      
     public static final int STORE_CUSTOM = MAGIC_NUMBER | 4;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the code values are stored in Sparse Format. The header holds the
+     * number of bits per word used for the file, so words need not be
+     * BITS_PER_WORD bits, and the code length of only those values
+     * that occur in the file.
+     */
+    public static final int STORE_SPARSE = MAGIC_NUMBER | 8;
+
+    /**
+     * The largest number of bits per word supported by the Sparse Format.
+     */
+    public static final int MAX_BITS_PER_WORD = 16;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the code values are stored in Context Format. Each value is coded
+     * with a table picked by the value before it, and the header holds
+     * the code lengths of every table used.
+     */
+    public static final int STORE_CONTEXT = MAGIC_NUMBER | 16;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is LZ77 coded, with literals and lengths sharing one code
+     * table and distances using another. The header holds the window size
+     * and the code lengths of both tables.
+     */
+    public static final int STORE_LZ77 = MAGIC_NUMBER | 32;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is coded with the table of a trained HuffDictionary. The
+     * header holds only the DICTIONARY_ID_BITS id of the dictionary, which
+     * must be registered with the processor that uncompresses the file.
+     */
+    public static final int STORE_DICTIONARY = MAGIC_NUMBER | 0x100;
+
+    /**
+     * The number of bits used to store a dictionary id.
+     */
+    public static final int DICTIONARY_ID_BITS = 32;
+
+    /**
+     * A value following MAGIC_NUMBER at the start and at the end of a
+     * HuffArchive. It is not a header format; the entries of an archive are
+     * each a compressed file and its central directory is at its end.
+     */
+    public static final int STORE_ARCHIVE = MAGIC_NUMBER | 0x400;
+
+    /**
+     * Flag or'ed with the header format value in files whose data went
+     * through a TransformPipeline before being Huffman coded. The
+     * TRANSFORM_BITS bit mask of stages used follows the header format value.
+     */
+    public static final int TRANSFORM_FLAG = 0x80;
+
+    /**
+     * The number of bits used to store the transform stages.
+     */
+    public static final int TRANSFORM_BITS = 8;
+
+    /**
+     * Flag or'ed with the header format value in files that end with the
+     * CRC32C of the original data, in CHECKSUM_BITS bits after the body.
+     */
+    public static final int CHECKSUM_FLAG = 0x40;
+
+    /**
+     * The number of bits used to store the checksum.
+     */
+    public static final int CHECKSUM_BITS = 32;
 }
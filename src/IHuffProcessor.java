@@ -1,6 +1,8 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * The interface for the model that can be attached
@@ -68,4 +70,56 @@ public interface IHuffProcessor extends IHuffConstants {
      */
     public int uncompress(InputStream in, OutputStream out) throws IOException;
 
+    /**
+     * Set the listener told how preprocessCompress, compress and uncompress
+     * are going, and asked if they should stop. Processors that do not report
+     * progress ignore the listener.
+     * @param listener the listener, or null for none
+     */
+    public default void setProgressListener(IProgressListener listener) {
+    }
+
+    /**
+     * Runs preprocessCompress on executor. Cancelling the returned future
+     * stops the preprocessing at the next read from in.
+     * @param in is the stream which could be subsequently compressed
+     * @param headerFormat the header format, as for preprocessCompress
+     * @param executor runs the preprocessing
+     * @return a future for the value preprocessCompress returns
+     */
+    public default CompletableFuture<Integer> preprocessCompressAsync(InputStream in,
+            int headerFormat, Executor executor) {
+        return HuffJob.submit(executor, in, null, (input, output) ->
+                preprocessCompress(input, headerFormat));
+    }
+
+    /**
+     * Runs compress on executor. To compress after preprocessing, chain this
+     * to the future of preprocessCompressAsync with thenCompose. Cancelling
+     * the returned future stops the compression at the next read or write.
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written
+     * @param force as for compress
+     * @param executor runs the compression
+     * @return a future for the value compress returns
+     */
+    public default CompletableFuture<Integer> compressAsync(InputStream in, OutputStream out,
+            boolean force, Executor executor) {
+        return HuffJob.submit(executor, in, out, (input, output) ->
+                compress(input, output, force));
+    }
+
+    /**
+     * Runs uncompress on executor. Cancelling the returned future stops
+     * the uncompression at the next read or write.
+     * @param in is the previously compressed data (not a BitInputStream)
+     * @param out is the uncompressed file/stream
+     * @param executor runs the uncompression
+     * @return a future for the value uncompress returns
+     */
+    public default CompletableFuture<Integer> uncompressAsync(InputStream in, OutputStream out,
+            Executor executor) {
+        return HuffJob.submit(executor, in, out, (input, output) -> uncompress(input, output));
+    }
+
 }
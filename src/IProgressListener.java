@@ -0,0 +1,53 @@
+import java.io.InterruptedIOException;
+
+/**
+ * Told how far a compress or uncompress has got, and asked whether to go on.
+ * The processor calls progress about every INTERVAL words from inside its
+ * coding loops, so a listener adds no cost to each byte read and needs no
+ * wrapper around the streams. Calls come from the thread doing the work.
+ */
+public interface IProgressListener {
+
+    /**
+     * Phase names.
+     */
+    public static final String COUNT = "count";
+    public static final String COMPRESS = "compress";
+    public static final String UNCOMPRESS = "uncompress";
+
+    /**
+     * Number of words coded between calls to progress.
+     */
+    public static final int INTERVAL = 1 << 16;
+
+    /**
+     * Reports progress in a phase. The amounts are bytes of the input of the
+     * phase: the data being counted or compressed, or the compressed data
+     * being uncompressed, not counting its header.
+     *
+     * @param phase COUNT, COMPRESS or UNCOMPRESS
+     * @param done  the number of bytes of input handled so far
+     * @param total the number of bytes of input in all, or -1 if the
+     *              processor does not know
+     * @return true to go on, false to stop the work, which the processor
+     *         does by throwing an InterruptedIOException
+     */
+    public boolean progress(String phase, long done, long total);
+
+    /**
+     * Calls progress on a listener and stops the work if it returns false.
+     * Does nothing if listener is null.
+     *
+     * @param listener the listener, or null
+     * @param phase    the phase
+     * @param done     bytes of input handled so far
+     * @param total    bytes of input in all, or -1
+     * @throws InterruptedIOException if the listener says to stop
+     */
+    public static void report(IProgressListener listener, String phase, long done, long total)
+            throws InterruptedIOException {
+        if (listener != null && !listener.progress(phase, done, total)) {
+            throw new InterruptedIOException(phase + " cancelled");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds that many threads can record into
+ * at once without locks. Each power of two is split into SUB_BUCKETS
+ * buckets, so a percentile is found to within 1 / SUB_BUCKETS of its value.
+ * Every bucket is a LongAdder, which only spreads its count over more
+ * cells when threads actually collide on it, so a quiet histogram stays
+ * small and a busy one does not make threads wait for each other.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BITS = 3;
+    // enough buckets for latencies up to 2^40 ns, about 18 minutes
+    private static final int MAX_POWER = 40;
+    private static final int NUM_BUCKETS = (MAX_POWER - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        buckets[bucket(Math.max(0, nanos))].increment();
+    }
+
+    /**
+     * Get a percentile of the recorded latencies. The counts are read while
+     * other threads may still be recording, so the result is for roughly the
+     * latencies recorded up to the call.
+     *
+     * @param fraction the percentile as a fraction, 0.5 for the median
+     * @return the latency in nanoseconds, the middle of its bucket, or 0 if
+     *         nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (lowest(i) + lowest(i + 1) - 1) / 2;
+            }
+        }
+        return lowest(NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Get the number of latencies recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Forgets all recorded latencies.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+
+    // Values below SUB_BUCKETS get a bucket each. Larger values v with
+    // highest bit h go in bucket (h - SUB_BITS + 1) * SUB_BUCKETS plus the
+    // SUB_BITS bits after the highest one.
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int high = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        if (high > MAX_POWER) {
+            return NUM_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (high - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (high - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Get the smallest value in a bucket.
+    private static long lowest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int high = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS | sub) << (high - SUB_BITS);
+    }
+}
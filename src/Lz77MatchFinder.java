@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * Finds earlier copies of the bytes at a position, for LZ77 coding. Positions
+ * are chained by the hash of their first MIN_MATCH bytes: head[h] is the most
+ * recent position with hash h and prev[p & windowMask] the one before p. Both
+ * are plain int arrays that are allocated once, so searching never allocates.
+ * <p>
+ * The effort level, 1 to MAX_LEVEL, sets how far down a chain to look,
+ * the match length that is good enough to stop looking, and whether a match
+ * may be put off by one byte when the next position has a longer one
+ * (lazy matching).
+ */
+public class Lz77MatchFinder {
+
+    /**
+     * Shortest match that is worth coding.
+     */
+    public static final int MIN_MATCH = 3;
+
+    /**
+     * Longest match that is coded.
+     */
+    public static final int MAX_MATCH = 258;
+
+    /**
+     * Smallest and largest window sizes, in bits.
+     */
+    public static final int MIN_WINDOW_BITS = 8;
+    public static final int MAX_WINDOW_BITS = 20;
+
+    /**
+     * Highest effort level.
+     */
+    public static final int MAX_LEVEL = 9;
+
+    private static final int HASH_BITS = 15;
+    private static final int[] CHAIN_LENGTHS = {4, 8, 16, 32, 64, 128, 256, 1024, 4096};
+    private static final int[] NICE_LENGTHS = {8, 16, 32, 32, 64, 128, 258, 258, 258};
+    private static final int FIRST_LAZY_LEVEL = 4;
+
+    private int windowBits;
+    private int level;
+    private int windowMask;
+    private int maxChain;
+    private int niceLength;
+    private boolean lazy;
+    private int[] head;
+    private int[] prev;
+    private int distance;
+
+    /**
+     * Creates a match finder.
+     *
+     * @param windowBits matches are looked for in the last 2^windowBits bytes
+     * @param level      the effort level, 1 (fastest) to MAX_LEVEL (smallest output)
+     */
+    public Lz77MatchFinder(int windowBits, int level) {
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("windowBits must be between "
+                    + MIN_WINDOW_BITS + " and " + MAX_WINDOW_BITS);
+        }
+        if (level < 1 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be between 1 and " + MAX_LEVEL);
+        }
+        this.windowBits = windowBits;
+        this.level = level;
+        windowMask = (1 << windowBits) - 1;
+        maxChain = CHAIN_LENGTHS[level - 1];
+        niceLength = NICE_LENGTHS[level - 1];
+        lazy = level >= FIRST_LAZY_LEVEL;
+        head = new int[1 << HASH_BITS];
+        prev = new int[1 << windowBits];
+    }
+
+    /**
+     * Forgets all positions, so new data can be searched.
+     */
+    public void reset() {
+        Arrays.fill(head, -1);
+    }
+
+    /**
+     * Adds a position to its hash chain. Positions must be added in
+     * increasing order, and only after they have been searched from.
+     *
+     * @param data   the data being searched
+     * @param pos    the position, at least MIN_MATCH bytes before the end
+     */
+    public void insert(byte[] data, int pos) {
+        int h = hash(data, pos);
+        prev[pos & windowMask] = head[h];
+        head[h] = pos;
+    }
+
+    /**
+     * Finds the longest earlier copy of the bytes at pos within the window.
+     * The distance back to it is available from getDistance.
+     *
+     * @param data the data being searched
+     * @param pos  the position, at least MIN_MATCH bytes before end
+     * @param end  the end of the data
+     * @return the length of the match, 0 if there is none of at least
+     *         MIN_MATCH bytes
+     */
+    public int find(byte[] data, int pos, int end) {
+        int maxLength = Math.min(MAX_MATCH, end - pos);
+        int limit = pos - windowMask;
+        int best = MIN_MATCH - 1;
+        int candidate = head[hash(data, pos)];
+        int chain = maxChain;
+        while (candidate >= limit && candidate >= 0 && chain > 0) {
+            // check the byte that would make this match the longest first
+            if (data[candidate + best] == data[pos + best]) {
+                int length = 0;
+                while (length < maxLength && data[candidate + length] == data[pos + length]) {
+                    length++;
+                }
+                if (length > best) {
+                    best = length;
+                    distance = pos - candidate;
+                    if (length >= niceLength || length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate & windowMask];
+            chain--;
+        }
+        return best >= MIN_MATCH ? best : 0;
+    }
+
+    /**
+     * Get the distance back to the match last returned by find.
+     *
+     * @return the distance, 1 to 2^windowBits - 1
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Is a match worth putting off when a longer one starts at the next byte.
+     *
+     * @param length the length of the match at the current position
+     * @return true if the next position should be searched first
+     */
+    public boolean tryLazy(int length) {
+        return lazy && length < niceLength;
+    }
+
+    /**
+     * Get the window size of this match finder.
+     *
+     * @return the number of bits in the window size
+     */
+    public int getWindowBits() {
+        return windowBits;
+    }
+
+    /**
+     * Get the effort level of this match finder.
+     *
+     * @return the level, 1 to MAX_LEVEL
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        int key = ((data[pos] & 0xff) << 16) | ((data[pos + 1] & 0xff) << 8)
+                | (data[pos + 2] & 0xff);
+        return (key * 0x9E3779B1) >>> (Integer.SIZE - HASH_BITS);
+    }
+}
@@ -0,0 +1,389 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * LZ77 coding for the LZ77 Format, in the style of deflate. The data is
+ * parsed into literal bytes and (length, distance) copies of earlier data.
+ * Literals, the PSEUDO_EOF and length codes share one code table and
+ * distance codes have a second one, both canonical codes built from the
+ * counts of a first parse, the same way preprocessCompress builds a table
+ * from the counts of each value.
+ * <p>
+ * Lengths and distances are coded as a bucket code followed by extra bits.
+ * Values 0 to 3 are their own bucket. Larger values v get bucket
+ * 2 * h + b, where h is the position of the highest 1 bit of v and b the bit
+ * after it, followed by the h - 1 bits below it.
+ * <p>
+ * Plans and uncompress count and decode with the model of their thread, from
+ * forThread, which keeps its counts, tables and window between files. A plan
+ * keeps only copyTables, the tables it codes with, and parsing takes the
+ * match finder of the thread it runs on and resets it, so the hash chains
+ * belong to one compress at a time and are not kept in the plan.
+ */
+public class Lz77Model implements IHuffConstants {
+
+    /**
+     * Number of length buckets, enough for lengths up to MAX_MATCH.
+     */
+    public static final int LENGTH_CODES = 16;
+
+    /**
+     * Number of distance buckets, enough for the largest window.
+     */
+    public static final int DISTANCE_CODES = 2 * Lz77MatchFinder.MAX_WINDOW_BITS;
+
+    /**
+     * Size of the literal and length alphabet: literals, PSEUDO_EOF, lengths.
+     */
+    public static final int LITERAL_CODES = PSEUDO_EOF + 1 + LENGTH_CODES;
+
+    private static final int WINDOW_BITS_FIELD = 8;
+
+    private static final ThreadLocal<Lz77Model> LOCAL = ThreadLocal.withInitial(Lz77Model::new);
+
+    // the match finder of each thread, made again when the settings change
+    private static final ThreadLocal<Lz77MatchFinder> FINDERS = new ThreadLocal<>();
+
+    private int windowBits;
+    private int level;
+    private int[] literalCounts;
+    private int[] distanceCounts;
+    private CodeTable literals;
+    private CodeTable distances;
+    private long extraBits;
+    private long[] work;
+    // the decoding window, kept between files
+    private byte[] window;
+
+    /**
+     * Creates an empty model. The window size is set by count or read from
+     * the header.
+     */
+    public Lz77Model() {
+        literalCounts = new int[LITERAL_CODES];
+        distanceCounts = new int[DISTANCE_CODES];
+        literals = new CodeTable(LITERAL_CODES);
+        distances = new CodeTable(DISTANCE_CODES);
+        work = new long[6 * LITERAL_CODES];
+    }
+
+    // Makes a model holding copies of the tables and settings of model,
+    // for writing only.
+    private Lz77Model(Lz77Model model) {
+        windowBits = model.windowBits;
+        level = model.level;
+        literals = model.literals.copy();
+        distances = model.distances.copy();
+    }
+
+    /**
+     * Get the model of the calling thread, made the first time it is asked
+     * for. It must not be passed to other threads, and is changed by the
+     * next plan or uncompress on this thread.
+     *
+     * @return the model of this thread
+     */
+    public static Lz77Model forThread() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Makes a model with copies of the tables and settings of this one,
+     * which can write the data count was given after this model is used for
+     * another file. It has no counts, so it can not count or read.
+     *
+     * @return the copy
+     */
+    public Lz77Model copyTables() {
+        return new Lz77Model(this);
+    }
+
+    /**
+     * Parses data, counts the literals, lengths and distances, and builds
+     * the code tables from the counts.
+     *
+     * @param data       the data to compress
+     * @param length     the number of bytes of data
+     * @param windowBits matches are looked for in the last 2^windowBits bytes
+     * @param level      the effort level of the match finder
+     * @param listener   told how the parse is going, or null
+     * @throws InterruptedIOException if the listener cancels
+     */
+    public void count(byte[] data, int length, int windowBits, int level,
+            IProgressListener listener) throws InterruptedIOException {
+        this.windowBits = windowBits;
+        this.level = level;
+        Arrays.fill(literalCounts, 0);
+        Arrays.fill(distanceCounts, 0);
+        extraBits = 0;
+        parse(data, length, null, listener);
+        literalCounts[PSEUDO_EOF]++;
+        literals.buildCanonical(literalCounts, work);
+        distances.buildCanonical(distanceCounts, work);
+    }
+
+    /**
+     * Writes the coded data, ending with the PSEUDO_EOF. Must be called with
+     * the same data count was.
+     *
+     * @param data     the data to compress
+     * @param length   the number of bytes of data
+     * @param out      where the codes are written
+     * @param listener told how the compression is going, or null
+     * @return the number of bits written
+     * @throws InterruptedIOException if the listener cancels
+     */
+    public int write(byte[] data, int length, BitOutputStream out, IProgressListener listener)
+            throws InterruptedIOException {
+        return parse(data, length, out, listener) + literals.write(out, PSEUDO_EOF);
+    }
+
+    /*
+     * Parse data into literals and matches. If out is null the symbols are
+     * counted, otherwise their codes are written to out. Returns the number
+     * of bits written.
+     */
+    private int parse(byte[] data, int length, BitOutputStream out, IProgressListener listener)
+            throws InterruptedIOException {
+        Lz77MatchFinder finder = finder(windowBits, level);
+        finder.reset();
+        String phase = out == null ? IProgressListener.COUNT : IProgressListener.COMPRESS;
+        int nextReport = IProgressListener.INTERVAL;
+        int bitsWritten = 0;
+        int pos = 0;
+        int matchLength = 0;
+        int matchDistance = 0;
+        boolean found = false;
+        while (pos < length) {
+            if (pos >= nextReport && listener != null) {
+                IProgressListener.report(listener, phase, pos, length);
+                nextReport = pos + IProgressListener.INTERVAL;
+            }
+            boolean searchable = pos + Lz77MatchFinder.MIN_MATCH <= length;
+            if (!found && searchable) {
+                matchLength = finder.find(data, pos, length);
+                matchDistance = finder.getDistance();
+            } else if (!found) {
+                matchLength = 0;
+            }
+            found = false;
+            if (searchable) {
+                finder.insert(data, pos);
+            }
+            if (matchLength > 0 && finder.tryLazy(matchLength)
+                    && pos + 1 + Lz77MatchFinder.MIN_MATCH <= length) {
+                int nextLength = finder.find(data, pos + 1, length);
+                if (nextLength > matchLength) {
+                    // emit a literal and take the longer match at pos + 1
+                    bitsWritten += literal(data[pos] & 0xff, out);
+                    matchLength = nextLength;
+                    matchDistance = finder.getDistance();
+                    found = true;
+                    pos++;
+                    continue;
+                }
+            }
+            if (matchLength > 0) {
+                bitsWritten += match(matchLength, matchDistance, out);
+                for (int i = pos + 1; i < pos + matchLength
+                        && i + Lz77MatchFinder.MIN_MATCH <= length; i++) {
+                    finder.insert(data, i);
+                }
+                pos += matchLength;
+            } else {
+                bitsWritten += literal(data[pos] & 0xff, out);
+                pos++;
+            }
+        }
+        return bitsWritten;
+    }
+
+    // Get the match finder of this thread for the settings.
+    private static Lz77MatchFinder finder(int windowBits, int level) {
+        Lz77MatchFinder finder = FINDERS.get();
+        if (finder == null || finder.getWindowBits() != windowBits
+                || finder.getLevel() != level) {
+            finder = new Lz77MatchFinder(windowBits, level);
+            FINDERS.set(finder);
+        }
+        return finder;
+    }
+
+    // Count or write one literal.
+    private int literal(int value, BitOutputStream out) {
+        if (out == null) {
+            literalCounts[value]++;
+            return 0;
+        }
+        return literals.write(out, value);
+    }
+
+    // Count or write one match, the length and distance buckets with their extra bits.
+    private int match(int length, int distance, BitOutputStream out) {
+        int lengthValue = length - Lz77MatchFinder.MIN_MATCH;
+        int distanceValue = distance - 1;
+        int lengthCode = bucket(lengthValue);
+        int distanceCode = bucket(distanceValue);
+        int lengthExtra = extraBitCount(lengthCode);
+        int distanceExtra = extraBitCount(distanceCode);
+        if (out == null) {
+            literalCounts[PSEUDO_EOF + 1 + lengthCode]++;
+            distanceCounts[distanceCode]++;
+            extraBits += lengthExtra + distanceExtra;
+            return 0;
+        }
+        int bits = literals.write(out, PSEUDO_EOF + 1 + lengthCode);
+        if (lengthExtra > 0) {
+            out.writeBits(lengthExtra, lengthValue);
+        }
+        bits += distances.write(out, distanceCode);
+        if (distanceExtra > 0) {
+            out.writeBits(distanceExtra, distanceValue);
+        }
+        return bits + lengthExtra + distanceExtra;
+    }
+
+    /**
+     * Get the bucket code of a length or distance value.
+     *
+     * @param value the length minus MIN_MATCH, or the distance minus 1
+     * @return the bucket
+     */
+    static int bucket(int value) {
+        if (value < 4) {
+            return value;
+        }
+        int high = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+        return 2 * high + ((value >>> (high - 1)) & 1);
+    }
+
+    /**
+     * Get the number of extra bits that follow a bucket code.
+     *
+     * @param code the bucket
+     * @return the number of extra bits
+     */
+    static int extraBitCount(int code) {
+        return code < 4 ? 0 : code / 2 - 1;
+    }
+
+    // Get the smallest value in a bucket.
+    private static int bucketBase(int code) {
+        if (code < 4) {
+            return code;
+        }
+        return (2 | (code & 1)) << (code / 2 - 1);
+    }
+
+    /**
+     * Get the number of bits write will write for the counted data.
+     *
+     * @return the size of the body in bits
+     */
+    public long getEncodedSize() {
+        return literals.getEncodedSize(literalCounts) + distances.getEncodedSize(distanceCounts)
+                + extraBits;
+    }
+
+    /**
+     * Get the number of bits writeHeader writes.
+     *
+     * @return the size of the header in bits
+     */
+    public int getHeaderSize() {
+        return WINDOW_BITS_FIELD + literals.getHeaderSize() + distances.getHeaderSize();
+    }
+
+    /**
+     * Writes the window size and the two code tables.
+     *
+     * @param out the stream to write to
+     * @return the number of bits written
+     */
+    public int writeHeader(BitOutputStream out) {
+        out.writeBits(WINDOW_BITS_FIELD, windowBits);
+        return WINDOW_BITS_FIELD + literals.writeHeader(out) + distances.writeHeader(out);
+    }
+
+    /**
+     * Reads a header written by writeHeader and decodes the body that follows,
+     * writing the uncompressed bytes to out.
+     *
+     * @param in       the compressed data, positioned after the header format
+     * @param out      where the uncompressed bytes are written
+     * @param listener told how the uncompression is going, or null
+     * @return the number of bytes written
+     * @throws IOException if the data is truncated or invalid, or the
+     *                     listener cancels
+     */
+    public long read(BitInputStream in, BitOutputStream out, IProgressListener listener)
+            throws IOException {
+        int bits = in.readBits(WINDOW_BITS_FIELD);
+        if (bits < Lz77MatchFinder.MIN_WINDOW_BITS || bits > Lz77MatchFinder.MAX_WINDOW_BITS) {
+            throw new IOException("Invalid LZ77 window size.");
+        }
+        windowBits = bits;
+        literals.readHeader(in);
+        distances.readHeader(in);
+        if (window == null || window.length < 1 << windowBits) {
+            window = new byte[1 << windowBits];
+        }
+        byte[] window = this.window;
+        int mask = (1 << windowBits) - 1;
+        long written = 0;
+        // bits of codes read, for progress
+        long bitsRead = 0;
+        long symbols = 0;
+        int symbol = literals.read(in);
+        while (symbol != PSEUDO_EOF) {
+            if (symbol >= 0) {
+                bitsRead += literals.getLength(symbol);
+            }
+            if (listener != null && ++symbols % IProgressListener.INTERVAL == 0) {
+                IProgressListener.report(listener, IProgressListener.UNCOMPRESS,
+                        bitsRead / BITS_PER_WORD, -1);
+            }
+            if (symbol < 0) {
+                throw new IOException("No PSEUDO_EOF value.");
+            } else if (symbol < PSEUDO_EOF) {
+                window[(int) written & mask] = (byte) symbol;
+                out.writeBits(BITS_PER_WORD, symbol);
+                written++;
+            } else {
+                int length = readValue(in, symbol - PSEUDO_EOF - 1) + Lz77MatchFinder.MIN_MATCH;
+                int distanceCode = distances.read(in);
+                if (distanceCode < 0) {
+                    throw new IOException("No PSEUDO_EOF value.");
+                }
+                int distance = readValue(in, distanceCode) + 1;
+                bitsRead += distances.getLength(distanceCode) + extraBitCount(distanceCode)
+                        + extraBitCount(symbol - PSEUDO_EOF - 1);
+                if (distance > written || distance > mask) {
+                    throw new IOException("Invalid LZ77 distance.");
+                }
+                for (int i = 0; i < length; i++) {
+                    byte value = window[(int) (written - distance) & mask];
+                    window[(int) written & mask] = value;
+                    out.writeBits(BITS_PER_WORD, value);
+                    written++;
+                }
+            }
+            symbol = literals.read(in);
+        }
+        return written;
+    }
+
+    // Read the extra bits of a bucket and return the value.
+    private int readValue(BitInputStream in, int code) throws IOException {
+        int extra = extraBitCount(code);
+        if (extra == 0) {
+            return bucketBase(code);
+        }
+        int bits = in.readBits(extra);
+        if (bits < 0) {
+            throw new IOException("No PSEUDO_EOF value.");
+        }
+        return bucketBase(code) + bits;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Move-to-front transform. Each byte is replaced by its position in a list
+ * of all byte values, and then moved to the front of the list. After a
+ * Burrows-Wheeler transform most bytes repeat recently seen ones, so the
+ * output is mostly small values and runs of zeros.
+ */
+public class MoveToFrontTransform implements IByteTransform {
+    private static final int NUM_VALUES = 256;
+
+    public byte[] forward(byte[] data, int length) {
+        byte[] list = initialList();
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            byte value = data[i];
+            int position = 0;
+            byte moved = list[0];
+            // shift everything in front of value back by one
+            while (moved != value) {
+                position++;
+                byte next = list[position];
+                list[position] = moved;
+                moved = next;
+            }
+            list[0] = value;
+            result[i] = (byte) position;
+        }
+        return result;
+    }
+
+    public byte[] inverse(byte[] data, int length) {
+        byte[] list = initialList();
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int position = data[i] & 0xff;
+            byte value = list[position];
+            System.arraycopy(list, 0, list, 1, position);
+            list[0] = value;
+            result[i] = value;
+        }
+        return result;
+    }
+
+    // The list starts out in increasing order.
+    private byte[] initialList() {
+        byte[] list = new byte[NUM_VALUES];
+        for (int i = 0; i < NUM_VALUES; i++) {
+            list[i] = (byte) i;
+        }
+        return list;
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+/**
+ * Compresses one file on three threads so reading, coding and writing
+ * overlap. A reader thread fills buffers from the input, a coder thread
+ * turns them into packed codes and a writer thread writes the coded buffers
+ * to the output. Each pair of threads is joined by a bounded queue of full
+ * buffers and a queue of free ones, so a fixed set of buffers is passed
+ * around and reused, and a fast stage waits for a slow one rather than
+ * reading ahead without limit.
+ * <p>
+ * The coder writes through one BitOutputStream for the whole file, so codes
+ * cross buffer boundaries the same as in compress and the output is the same.
+ * Only plans for which isRangeCoded is true can be pipelined.
+ */
+public class PipelinedCompressor {
+
+    /**
+     * Default size of each buffer, in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Default number of buffers between two stages.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    private final int bufferSize;
+    private final int depth;
+
+    /**
+     * Creates a compressor with DEFAULT_DEPTH buffers of DEFAULT_BUFFER_SIZE
+     * bytes between stages.
+     */
+    public PipelinedCompressor() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates a compressor.
+     *
+     * @param bufferSize the size of each buffer, in bytes
+     * @param depth      the number of buffers between two stages
+     */
+    public PipelinedCompressor(int bufferSize, int depth) {
+        if (bufferSize < 1 || depth < 1) {
+            throw new IllegalArgumentException("buffer size and depth must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.depth = depth;
+    }
+
+    /**
+     * Compresses in to out with plan, writing the header and then the
+     * body. Both streams are closed when done.
+     *
+     * @param plan     the plan for the data in in
+     * @param in       the data to compress, not a BitInputStream
+     * @param out      where the compressed file is written, not a BitOutputStream
+     * @param listener told how the compression is going, or null; called
+     *                 from the coder thread after each buffer
+     * @return the number of bits written, counted the same way as compress
+     * @throws IOException if reading or writing fails, or the listener cancels
+     */
+    public int compress(CompressionPlan plan, InputStream in, OutputStream out,
+            IProgressListener listener) throws IOException {
+        if (!plan.isRangeCoded()) {
+            throw new IllegalArgumentException("Format " + plan.getHeaderFormat()
+                    + " can not be pipelined.");
+        }
+        Link read = new Link();
+        Link coded = new Link();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int[] bitsWritten = new int[1];
+        Thread[] stages = new Thread[3];
+        Runnable[] work = {
+            () -> readStage(in, read),
+            () -> bitsWritten[0] = codeStage(plan, read, coded, listener),
+            () -> writeStage(out, coded)
+        };
+        String[] names = {"huff-reader", "huff-coder", "huff-writer"};
+        for (int i = 0; i < stages.length; i++) {
+            Runnable stage = work[i];
+            stages[i] = new Thread(() -> {
+                try {
+                    stage.run();
+                } catch (Throwable t) {
+                    // stop the other stages, which may be waiting on this one
+                    if (failure.compareAndSet(null, t)) {
+                        for (Thread other : stages) {
+                            other.interrupt();
+                        }
+                    }
+                }
+            }, names[i]);
+            stages[i].setDaemon(true);
+        }
+        for (Thread stage : stages) {
+            stage.start();
+        }
+        try {
+            for (Thread stage : stages) {
+                stage.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread stage : stages) {
+                stage.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } finally {
+            in.close();
+            out.close();
+        }
+        Throwable t = failure.get();
+        if (t instanceof UncheckedPipelineException) {
+            throw ((UncheckedPipelineException) t).getCause();
+        } else if (t != null) {
+            throw new IOException("error compressing: " + t, t);
+        }
+        return bitsWritten[0];
+    }
+
+    // Fills buffers from in until it ends, then sends an empty buffer.
+    private void readStage(InputStream in, Link read) {
+        try {
+            Buffer buffer;
+            do {
+                buffer = read.free.take();
+                buffer.length = in.readNBytes(buffer.data, 0, buffer.data.length);
+                read.full.put(buffer);
+            } while (buffer.length > 0);
+        } catch (IOException e) {
+            throw new UncheckedPipelineException(e);
+        } catch (InterruptedException e) {
+            throw new UncheckedPipelineException(new InterruptedIOException("reader interrupted"));
+        }
+    }
+
+    // Codes full buffers from read into buffers of coded, header first and
+    // PSEUDO_EOF and any checksum last.
+    private int codeStage(CompressionPlan plan, Link read, Link coded,
+            IProgressListener listener) {
+        try {
+            long done = 0;
+            CRC32C checksum = plan.isChecksummed() ? new CRC32C() : null;
+            BufferOutputStream sink = new BufferOutputStream(coded);
+            BitOutputStream bits = new BitOutputStream(sink);
+            int bitsWritten = plan.writeHeader(bits);
+            Buffer buffer = read.full.take();
+            while (buffer.length > 0) {
+                bitsWritten += plan.compressRange(buffer.data, 0, buffer.length, bits);
+                if (checksum != null) {
+                    checksum.update(buffer.data, 0, buffer.length);
+                }
+                done += buffer.length;
+                read.free.put(buffer);
+                IProgressListener.report(listener, IProgressListener.COMPRESS, done,
+                        plan.getDataBytes());
+                buffer = read.full.take();
+            }
+            bitsWritten += plan.writeEnd(bits);
+            if (checksum != null) {
+                bitsWritten += plan.writeChecksum(bits, checksum.getValue());
+            }
+            bits.flush();
+            sink.finish();
+            return bitsWritten;
+        } catch (InterruptedIOException e) {
+            throw new UncheckedPipelineException(e);
+        } catch (InterruptedException e) {
+            throw new UncheckedPipelineException(new InterruptedIOException("coder interrupted"));
+        }
+    }
+
+    // Writes full buffers from coded to out until an empty one arrives.
+    private void writeStage(OutputStream out, Link coded) {
+        try {
+            Buffer buffer = coded.full.take();
+            while (buffer.length > 0) {
+                out.write(buffer.data, 0, buffer.length);
+                coded.free.put(buffer);
+                buffer = coded.full.take();
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedPipelineException(e);
+        } catch (InterruptedException e) {
+            throw new UncheckedPipelineException(new InterruptedIOException("writer interrupted"));
+        }
+    }
+
+    /*
+     * A buffer and the number of bytes in it. A length of 0 marks the end.
+     */
+    private static class Buffer {
+        private final byte[] data;
+        private int length;
+
+        Buffer(int size) {
+            data = new byte[size];
+        }
+    }
+
+    /*
+     * The queues between two stages. Buffers go from free to the producer,
+     * through full to the consumer and back to free.
+     */
+    private class Link {
+        private final BlockingQueue<Buffer> free = new ArrayBlockingQueue<>(depth);
+        private final BlockingQueue<Buffer> full = new ArrayBlockingQueue<>(depth);
+
+        Link() {
+            for (int i = 0; i < depth; i++) {
+                free.add(new Buffer(bufferSize));
+            }
+        }
+    }
+
+    /*
+     * OutputStream that fills buffers of a Link and sends each one on when
+     * it is full, for the BitOutputStream of the coder.
+     */
+    private static class BufferOutputStream extends OutputStream {
+        private final Link link;
+        private Buffer current;
+
+        BufferOutputStream(Link link) throws InterruptedException {
+            this.link = link;
+            current = link.free.take();
+            current.length = 0;
+        }
+
+        public void write(int b) throws IOException {
+            if (current.length == current.data.length) {
+                send();
+            }
+            current.data[current.length++] = (byte) b;
+        }
+
+        // Sends the buffer being filled, if it has anything in it, then an
+        // empty one to mark the end.
+        void finish() throws InterruptedException {
+            if (current.length > 0) {
+                link.full.put(current);
+                current = link.free.take();
+            }
+            current.length = 0;
+            link.full.put(current);
+        }
+
+        private void send() throws IOException {
+            try {
+                link.full.put(current);
+                current = link.free.take();
+                current.length = 0;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("coder interrupted");
+            }
+        }
+    }
+
+    /*
+     * Carries an IOException out of a stage thread.
+     */
+    private static class UncheckedPipelineException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedPipelineException(IOException cause) {
+            super(cause);
+        }
+
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -16,25 +16,56 @@
  *
  */
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SimpleHuffProcessor implements IHuffProcessor {
-    private IHuffViewer myViewer;
-    private HuffmanTree frequencyTree;
-    private boolean preprocessed;
-    private int[] freqs;
-    private int headerFormat;
-    private int savedBits;
-    // TODO: maybe make the codesMap an instance variable
+    private static final int DEFAULT_WINDOW_BITS = 15;
+    private static final int DEFAULT_MATCH_LEVEL = 6;
+
+    private volatile IHuffViewer myViewer;
+    // the plan made by preprocessCompress for the next call to compress,
+    // shared by all threads, so that pair is single-threaded
+    private final AtomicReference<CompressionPlan> lastPlan = new AtomicReference<>();
+    private volatile int windowBits = DEFAULT_WINDOW_BITS;
+    private volatile int matchLevel = DEFAULT_MATCH_LEVEL;
+    private volatile int wordSize = BITS_PER_WORD;
+    private volatile TransformPipeline transform;
+    private volatile boolean checksummed;
+    private volatile HuffDictionary dictionary;
+    private volatile HuffDictionaryRegistry dictionaries = HuffDictionaryRegistry.getDefault();
+    private volatile PipelinedCompressor pipeline;
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile IProgressListener progressListener;
+    private volatile CodecMetrics metrics = CodecMetrics.getDefault();
 
     /**
      * Preprocess data so that compression is possible ---
      * count characters/create tree/store state so that
      * a subsequent call to compress will work. The InputStream
      * is <em>not</em> a BitInputStream, so wrap it int one as needed.
+     * <br>
+     * The state is a CompressionPlan kept in the processor for the next
+     * call to compress(in, out, force), on whatever thread makes it, so the
+     * pair is single-threaded: a processor must not be given a second
+     * preprocessCompress before the compress of the first. The two may run
+     * on different threads one after the other, as preprocessCompressAsync
+     * and compressAsync do.
+     * 
+     * @deprecated keeps state in the processor; use plan and
+     *             compress(plan, in, out, force), which any number of
+     *             threads can call at once on one processor
      * 
      * @param in           is the stream which could be subsequently compressed
      * @param headerFormat a constant from IHuffProcessor that determines what kind
@@ -50,63 +81,227 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      *         reproduce the tree, AND the actual data.
      * @throws IOException if an error occurs while reading from the input file.
      */
+    @Deprecated
     public int preprocessCompress(InputStream in, int headerFormat) throws IOException {
-        this.headerFormat = headerFormat;
-        freqs = new int[256];
-        int fileSize = getFrequencies(in);
-        frequencyTree = new HuffmanTree(freqs);
-        preprocessed = true;
-        int compressedSize = BITS_PER_INT * 2; // 2 ints to indicate huffman encoding
-        compressedSize += getHeaderSize(headerFormat);
-        Map<Integer, String> valuesMap = frequencyTree.getValueMappings();
-        for (int i = 0; i < freqs.length; i++) {
-            if (freqs[i] != 0) {
-                compressedSize += freqs[i] * valuesMap.get(i).length();
-            }
-        }
-        compressedSize += valuesMap.get(PSEUDO_EOF).length();
-        savedBits = fileSize - compressedSize;
-        return savedBits;
+        CompressionPlan plan = plan(in, headerFormat);
+        lastPlan.set(plan);
+        return plan.getSavedBits();
     }
 
     /**
-     * Calculates the size of the header of the compressed file
-     * 
-     * @param headerFormat the format of the file to compress
-     * @return the bits of the header
+     * Count the data in a stream and build everything needed to compress
+     * it, using the word size, transforms and match finder settings of this
+     * processor at the time of the call. The processor keeps no reference to
+     * the plan, so any number of threads can plan and compress at once.
+     *
+     * @param in           is the stream which could be subsequently compressed
+     * @param headerFormat a constant from IHuffProcessor that determines what
+     *                     kind of header to use
+     * @return the plan to pass to compress
+     * @throws IOException if an error occurs while reading from the input file.
      */
-    private int getHeaderSize(int headerFormat) {
-        int headerSize = 0;
-        if (headerFormat == STORE_COUNTS) {
-            headerSize += ALPH_SIZE * BITS_PER_INT;
-        } else if (headerFormat == STORE_TREE) {
-            headerSize += frequencyTree.size() +
-                    frequencyTree.getNumValues() * (BITS_PER_WORD + 1)
-                    + BITS_PER_INT;
+    public CompressionPlan plan(InputStream in, int headerFormat) throws IOException {
+        HuffPhaseEvent event = HuffPhaseEvent.start();
+        CompressionPlan plan = new CompressionPlan(in, headerFormat, wordSize, transform,
+                checksummed, dictionary, windowBits, matchLevel, progressListener);
+        event.commit(HuffPhaseEvent.PLAN, headerFormat, plan.getDataBytes(), 0,
+                plan.getCodeTable());
+        return plan;
+    }
+
+    /**
+     * Set the number of bits per word for files compressed after this call.
+     * Words of other than BITS_PER_WORD bits can only be stored with the
+     * Sparse Format header, which records the word size so uncompress
+     * can read it back.
+     *
+     * @param bits the number of bits per word, 1 to MAX_BITS_PER_WORD
+     */
+    public void setWordSize(int bits) {
+        if (bits < 1 || bits > MAX_BITS_PER_WORD) {
+            throw new IllegalArgumentException("bits per word must be between 1 and "
+                    + MAX_BITS_PER_WORD);
         }
-        return headerSize;
+        wordSize = bits;
     }
 
     /**
-     * Get the frequencies from every 8-bit word in an InputStream
-     * 
-     * @param in the InputStream to get the frequencies from
-     * @return an array of frequencies.
-     *         freqs[i] is the frequency of i
-     * @throws IOException
+     * Set how the LZ77 Format looks for matches in files compressed
+     * after this call.
+     *
+     * @param windowBits matches are looked for in the last 2^windowBits
+     *                   bytes, from Lz77MatchFinder.MIN_WINDOW_BITS to
+     *                   Lz77MatchFinder.MAX_WINDOW_BITS
+     * @param level      the effort level, 1 (fastest) to
+     *                   Lz77MatchFinder.MAX_LEVEL (smallest output)
+     */
+    public void setMatchFinder(int windowBits, int level) {
+        // let the match finder check the values now rather than on first use
+        new Lz77MatchFinder(windowBits, level);
+        this.windowBits = windowBits;
+        matchLevel = level;
+    }
+
+    /**
+     * Set the dictionary files compressed in the Dictionary Format after
+     * this call are coded with. The dictionary must be registered wherever
+     * the files are uncompressed.
+     *
+     * @param dictionary the dictionary, or null for none
+     */
+    public void setDictionary(HuffDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Set where uncompress looks up the dictionaries of Dictionary Format
+     * files. HuffDictionaryRegistry.getDefault is used unless this is called.
+     *
+     * @param registry the dictionaries to look in
+     */
+    public void setDictionaries(HuffDictionaryRegistry registry) {
+        dictionaries = registry;
+    }
+
+    /**
+     * Set whether files compressed after this call end with the CRC32C of
+     * the original data. uncompress and verify check the checksum of files
+     * that have one, so damage is found without comparing to the original.
+     *
+     * @param checksummed true to write a checksum
+     */
+    public void setChecksum(boolean checksummed) {
+        this.checksummed = checksummed;
+    }
+
+    /**
+     * Set the transforms applied to files compressed after this call, in
+     * front of the Huffman coding. The stages used are recorded in the
+     * compressed file, so uncompress undoes them without being told.
+     *
+     * @param pipeline the transforms to apply, or null for none
+     */
+    public void setTransform(TransformPipeline pipeline) {
+        transform = pipeline;
+    }
+
+    /**
+     * Set whether compress reads, codes and writes on separate threads so
+     * that disk reads and writes overlap with coding. Only used for the
+     * formats PipelinedCompressor supports, others are compressed on the
+     * calling thread as before.
+     *
+     * @param pipelined true to compress on three threads
+     */
+    public void setPipelined(boolean pipelined) {
+        pipeline = pipelined ? new PipelinedCompressor() : null;
+    }
+
+    /**
+     * Set the executor that runs the jobs of the async methods that are
+     * not given one. The default is the common ForkJoinPool.
+     *
+     * @param executor runs async jobs
      */
-    private int getFrequencies(InputStream in) throws IOException {
-        BitInputStream bitIn = new BitInputStream(in);
-        // Each unique word is represented as an index in the array
-        int bits = bitIn.readBits(BITS_PER_WORD);
-        int fileBits = 0;
-        while (bits > -1) {
-            freqs[bits]++;
-            fileBits += BITS_PER_WORD;
-            bits = bitIn.readBits(BITS_PER_WORD);
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor may not be null");
         }
-        bitIn.close();
-        return fileBits;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs plan on the executor of this processor. Cancelling the returned
+     * future stops the counting at the next read from in.
+     *
+     * @param in           is the stream which could be subsequently compressed
+     * @param headerFormat the header format to use
+     * @return a future for the plan
+     */
+    public CompletableFuture<CompressionPlan> planAsync(InputStream in, int headerFormat) {
+        return HuffJob.submit(executor, in, null, (input, output) -> plan(input, headerFormat));
+    }
+
+    /**
+     * Runs compress with a plan on the executor of this processor. Cancelling
+     * the returned future stops the compression at the next read or write.
+     *
+     * @param plan  the plan for the data in in
+     * @param in    is the stream being compressed (NOT a BitInputStream)
+     * @param out   is bound to a file/stream to which bits are written
+     * @param force as for compress
+     * @return a future for the number of bits written
+     */
+    public CompletableFuture<Integer> compressAsync(CompressionPlan plan, InputStream in,
+            OutputStream out, boolean force) {
+        return HuffJob.submit(executor, in, out, (input, output) ->
+                compress(plan, input, output, force));
+    }
+
+    /**
+     * Plans and then compresses on the executor of this processor, reading
+     * the data once from each of two streams. Cancelling the returned future
+     * stops whichever of the two steps is running.
+     *
+     * @param toCount      the data to plan from
+     * @param toCompress   the same data, to compress
+     * @param out          is bound to a file/stream to which bits are written
+     * @param headerFormat the header format to use
+     * @param force        as for compress
+     * @return a future for the number of bits written
+     */
+    public CompletableFuture<Integer> compressAsync(InputStream toCount, InputStream toCompress,
+            OutputStream out, int headerFormat, boolean force) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> step = new AtomicReference<>();
+        CompletableFuture<CompressionPlan> planning = planAsync(toCount, headerFormat);
+        step.set(planning);
+        planning.whenComplete((plan, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else if (!result.isDone()) {
+                CompletableFuture<Integer> compressing = compressAsync(plan, toCompress, out, force);
+                step.set(compressing);
+                compressing.whenComplete((bits, f) -> {
+                    if (f != null) {
+                        result.completeExceptionally(f);
+                    } else {
+                        result.complete(bits);
+                    }
+                });
+                if (result.isCancelled()) {
+                    compressing.cancel(true);
+                }
+            }
+        });
+        result.whenComplete((bits, e) -> {
+            if (result.isCancelled()) {
+                step.get().cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs preprocessCompress on the executor of this processor.
+     *
+     * @param in           is the stream which could be subsequently compressed
+     * @param headerFormat the header format to use
+     * @return a future for the value preprocessCompress returns
+     */
+    public CompletableFuture<Integer> preprocessCompressAsync(InputStream in, int headerFormat) {
+        return preprocessCompressAsync(in, headerFormat, executor);
+    }
+
+    /**
+     * Runs uncompress on the executor of this processor.
+     *
+     * @param in  is the previously compressed data (not a BitInputStream)
+     * @param out is the uncompressed file/stream
+     * @return a future for the value uncompress returns
+     */
+    public CompletableFuture<Integer> uncompressAsync(InputStream in, OutputStream out) {
+        return uncompressAsync(in, out, executor);
     }
 
     /**
@@ -115,6 +310,9 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * storing state used by this call.
      * <br>
      * pre: <code>preprocessCompress</code> must be called before this method
+     * <br>
+     * Single-threaded like preprocessCompress: it takes the plan of the last
+     * preprocessCompress on this processor, whichever thread made it.
      * 
      * @param in    is the stream being compressed (NOT a BitInputStream)
      * @param out   is bound to a file/stream to which bits are written
@@ -126,94 +324,92 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * @return the number of bits written.
      * @throws IOException if an error occurs while reading from the input file or
      *                     writing to the output file.
+     * @deprecated keeps state in the processor; use plan and
+     *             compress(plan, in, out, force)
      */
+    @Deprecated
     public int compress(InputStream in, OutputStream out, boolean force) throws IOException {
-        if (!preprocessed) {
+        CompressionPlan plan = lastPlan.getAndSet(null);
+        if (plan == null) {
             throw new IllegalStateException("preprocessCompress() must be " +
                     "called before calling compress()");
         }
-        preprocessed = false;
-        int bitsWritten = 0;
-        if (savedBits > 0 || force) {
-            BitInputStream input = new BitInputStream(in);
-            BitOutputStream output = new BitOutputStream(out);
-            // write the two sentinel values to indicate file type and compression format
-            output.writeBits(BITS_PER_INT, MAGIC_NUMBER);
-            output.writeBits(BITS_PER_INT, headerFormat);
-            bitsWritten += writeHeader(output);
-            bitsWritten += compressBody(input, output);
-            input.close();
-            output.close();
-        } else {
-            myViewer.showError("Compressed file has " + (savedBits * -1) +
-                    " more bits than uncompressed file.\n" +
-                    "Select \"force compression\" option to compress.");
-        }
-        return bitsWritten;
+        return compress(plan, in, out, force);
     }
 
     /**
-     * Writes the header of the compressed file depending on the
-     * headerFormat indicated in preprocessCompress
-     * 
-     * @param output the BitOutputStream to write to
-     * @return the number of bits written on this header
+     * Compresses input to output with a plan made from the same data by
+     * <code>plan</code>. Uses no state of this processor, so it may be
+     * called from many threads at once with different plans.
+     *
+     * @param plan  the plan for the data in in
+     * @param in    is the stream being compressed (NOT a BitInputStream)
+     * @param out   is bound to a file/stream to which bits are written
+     *              for the compressed file (not a BitOutputStream)
+     * @param force if this is true create the output file even if it is larger than
+     *              the input file.
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading from the input file or
+     *                     writing to the output file.
      */
-    private int writeHeader(BitOutputStream output) {
-        int headerSize = 0;
-        if (headerFormat == STORE_COUNTS) {
-            for (int frequency : freqs) {
-                headerSize += BITS_PER_INT;
-                output.writeBits(BITS_PER_INT, frequency);
+    public int compress(CompressionPlan plan, InputStream in, OutputStream out, boolean force)
+            throws IOException {
+        CodecMetrics recorder = metrics;
+        if (recorder == null) {
+            return compressPlan(plan, in, out, force);
+        }
+        long start = System.nanoTime();
+        // the bytes in are those read, before any transforms
+        CountingInputStream counted = new CountingInputStream(in);
+        try {
+            int bitsWritten = compressPlan(plan, counted, out, force);
+            if (bitsWritten > 0) {
+                recorder.record(CodecMetrics.COMPRESS, plan.getHeaderFormat(),
+                        counted.count, (bitsWritten + BITS_PER_WORD - 1) / BITS_PER_WORD,
+                        System.nanoTime() - start);
             }
-        } else if (headerFormat == STORE_TREE) {
-            headerSize += BITS_PER_INT;
-            String bitTree = frequencyTree.getBitRepresentation();
-            output.writeBits(BITS_PER_INT, bitTree.length());
-            headerSize += writeBitsFromString(bitTree, output);
+            return bitsWritten;
+        } catch (IOException | RuntimeException e) {
+            recorder.recordError(CodecMetrics.COMPRESS, plan.getHeaderFormat());
+            throw e;
         }
-        return headerSize;
     }
 
-    /**
-     * Writes the body of the compressed file using the HuffmanTree created in
-     * preprocessCompress
-     * 
-     * @param input  the BitInputStream from the file being compressed
-     * @param output the BitOutputStream being written to
-     * @return the number of bits written on this body
-     * @throws IOException
-     */
-    private int compressBody(BitInputStream input, BitOutputStream output) throws IOException {
+    // Does the work of compress(plan, in, out, force).
+    private int compressPlan(CompressionPlan plan, InputStream in, OutputStream out,
+            boolean force) throws IOException {
         int bitsWritten = 0;
-        Map<Integer, String> valuesMap = frequencyTree.getValueMappings();
-        int nextBits = input.readBits(BITS_PER_WORD);
-        while (nextBits > -1) {
-            bitsWritten += writeBitsFromString(valuesMap.get(nextBits), output);
-            nextBits = input.readBits(BITS_PER_WORD);
-        }
-        bitsWritten += writeBitsFromString(valuesMap.get(PSEUDO_EOF), output);
-        return bitsWritten;
-    }
-
-    /**
-     * Write bits into a BitOutputStream from a String and returns how many bits it
-     * wrote
-     * 
-     * @param bits String representation of bits. Must only contain '0' or '1' chars
-     * @param out  BitOutputStream where the bits are written
-     * @return amount of bits that were written
-     */
-    private int writeBitsFromString(String bits, BitOutputStream out) {
-        for (int i = 0; i < bits.length(); i++) {
-            char c = bits.charAt(i);
-            int toWrite = 0;
-            if (c == '1') {
-                toWrite = 1;
+        PipelinedCompressor pipelined = pipeline;
+        if ((plan.getSavedBits() > 0 || force) && pipelined != null && plan.isRangeCoded()) {
+            bitsWritten = pipelined.compress(plan, in, out, progressListener);
+        } else if (plan.getSavedBits() > 0 || force) {
+            ChecksumInputStream checked = null;
+            if (plan.isChecksummed()) {
+                checked = new ChecksumInputStream(in);
+                in = checked;
+            }
+            BitInputStream input = new BitInputStream(plan.transform(in));
+            BitOutputStream output = new BitOutputStream(out);
+            HuffPhaseEvent event = HuffPhaseEvent.start();
+            bitsWritten += plan.writeHeader(output);
+            event.commit(HuffPhaseEvent.WRITE_HEADER, plan.getHeaderFormat(), 0, bitsWritten,
+                    plan.getCodeTable());
+            event = HuffPhaseEvent.start();
+            int bodyBits = plan.compressBody(input, output, progressListener);
+            event.commit(HuffPhaseEvent.COMPRESS_BODY, plan.getHeaderFormat(),
+                    plan.getDataBytes(), bodyBits, plan.getCodeTable());
+            bitsWritten += bodyBits;
+            if (checked != null) {
+                bitsWritten += plan.writeChecksum(output, checked.getValue());
             }
-            out.writeBits(1, toWrite);
+            input.close();
+            output.close();
+        } else {
+            showError("Compressed file has " + (plan.getSavedBits() * -1) +
+                    " more bits than uncompressed file.\n" +
+                    "Select \"force compression\" option to compress.");
         }
-        return bits.length();
+        return bitsWritten;
     }
 
     /**
@@ -227,77 +423,406 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      *                     writing to the output file.
      */
     public int uncompress(InputStream in, OutputStream out) throws IOException {
-        int bitCount = 0;
-        BitInputStream input = new BitInputStream(in);
+        CodecMetrics recorder = metrics;
+        CountingInputStream counted = null;
+        if (recorder != null) {
+            counted = new CountingInputStream(in);
+            in = counted;
+        }
+        long start = System.nanoTime();
+        SegmentInputStream source = new SegmentInputStream(in);
+        BitInputStream input = new BitInputStream(source);
         int first = input.readBits(BITS_PER_INT);
         if (first != MAGIC_NUMBER) {
-            input.close();
+            source.finish();
             throw new IOException("Required magic number not present.");
         }
-        BitOutputStream output = new BitOutputStream(out);
         int format = input.readBits(BITS_PER_INT);
+        SegmentOutputStream sink = new SegmentOutputStream(out);
+        if (recorder == null) {
+            uncompressSegments(input, format, source, sink);
+            return (int) (sink.count * BITS_PER_WORD);
+        }
+        try {
+            uncompressSegments(input, format, source, sink);
+            recorder.record(CodecMetrics.UNCOMPRESS, format, counted.count, sink.count,
+                    System.nanoTime() - start);
+            return (int) (sink.count * BITS_PER_WORD);
+        } catch (IOException | RuntimeException e) {
+            recorder.recordError(CodecMetrics.UNCOMPRESS, format);
+            throw e;
+        }
+    }
+
+    // Uncompresses the segment whose magic number and header format have
+    // been read, then each segment appended after it, to sink. Returns
+    // whether every segment had a checksum.
+    private boolean uncompressSegments(BitInputStream input, int format,
+            SegmentInputStream source, SegmentOutputStream sink) throws IOException {
+        boolean allChecked = true;
+        try {
+            while (true) {
+                allChecked &= format != -1 && (format & CHECKSUM_FLAG) != 0;
+                uncompress(input, format, sink);
+                // a segment ends on a byte boundary, so the next one starts
+                // at the next byte of source
+                input = new BitInputStream(source);
+                int magic = input.readBits(BITS_PER_INT);
+                if (magic == -1) {
+                    break;
+                } else if (magic != MAGIC_NUMBER) {
+                    throw new IOException("Unexpected data after the end of a segment.");
+                }
+                format = input.readBits(BITS_PER_INT);
+            }
+        } finally {
+            source.finish();
+            sink.finish();
+        }
+        return allChecked;
+    }
+
+    // Uncompresses one segment once its magic number and header format
+    // have been read.
+    private int uncompress(BitInputStream input, int format, OutputStream out)
+            throws IOException {
+        int bitCount = 0;
+        HuffPhaseEvent event = HuffPhaseEvent.start();
+        ChecksumOutputStream checked = null;
+        if (format != -1 && (format & CHECKSUM_FLAG) != 0) {
+            // checksum the data after the transforms are undone
+            checked = new ChecksumOutputStream(out);
+            out = checked;
+            format &= ~CHECKSUM_FLAG;
+        }
+        TransformOutputStream untransformed = null;
+        if (format != -1 && (format & TRANSFORM_FLAG) != 0) {
+            int stages = input.readBits(TRANSFORM_BITS);
+            if (stages < 0 || (stages & ~TransformPipeline.ALL_STAGES) != 0) {
+                input.close();
+                throw new IOException("Unknown transform stages.");
+            }
+            untransformed = new TransformPipeline(stages).inverse(out);
+            out = untransformed;
+            format &= ~TRANSFORM_FLAG;
+        }
+        BitOutputStream output = new BitOutputStream(out);
+        int words = BITS_PER_WORD;
+        int tail = 0;
+        CodeTable table;
+        ContextModel model = null;
         // Recreate the tree
         if (format == STORE_COUNTS) {
-            freqs = new int[ALPH_SIZE];
+            int[] counts = new int[ALPH_SIZE];
             for (int i = 0; i < ALPH_SIZE; i++) {
-                freqs[i] = input.readBits(BITS_PER_INT);
+                counts[i] = input.readBits(BITS_PER_INT);
             }
-            frequencyTree = new HuffmanTree(freqs);
+            table = new HuffmanTree(counts).getCodeTable();
         } else if (format == STORE_TREE) {
             int treeBitSize = input.readBits(BITS_PER_INT);
-            StringBuilder bitString = new StringBuilder();
-            for (int i = 0; i < treeBitSize; i++) {
-                int nextBit = input.readBits(1);
-                if (nextBit == 0) {
-                    bitString.append('0');
-                } else if (nextBit == 1) {
-                    bitString.append('1');
-                }
+            try {
+                table = HuffmanTree.readCodeTable(input, treeBitSize);
+            } catch (IOException e) {
+                input.close();
+                output.close();
+                throw e;
+            }
+        } else if (format == STORE_SPARSE) {
+            words = input.readBits(CompressionPlan.WORD_SIZE_BITS);
+            tail = input.readBits(CompressionPlan.WORD_SIZE_BITS);
+            if (words < 1 || words > MAX_BITS_PER_WORD || tail < 0 || tail >= words) {
+                input.close();
+                output.close();
+                throw new IOException("Invalid word size in header.");
+            }
+            table = new CodeTable((1 << words) + 1);
+            table.readHeader(input);
+        } else if (format == STORE_CONTEXT) {
+            model = ContextModel.forThread();
+            model.readHeader(input);
+            table = model.getTable(0);
+        } else if (format == STORE_DICTIONARY) {
+            int id = input.readBits(DICTIONARY_ID_BITS);
+            if (id < 0) {
+                input.close();
+                output.close();
+                throw new IOException("Dictionary id missing, file is truncated.");
+            }
+            try {
+                table = dictionaries.get(id).getCodeTable();
+            } catch (IOException e) {
+                input.close();
+                output.close();
+                throw e;
             }
-            frequencyTree = new HuffmanTree(bitString.toString());
+        } else if (format == STORE_LZ77) {
+            // the LZ77 header and body are read together
+            bitCount = (int) (Lz77Model.forThread().read(input, output, progressListener)
+                    * BITS_PER_WORD);
+            event.commit(HuffPhaseEvent.UNCOMPRESS_BODY, format, bitCount / BITS_PER_WORD, 0, null);
+            table = null;
         } else {
-            // TODO: throw an exception if unsuported file type
             input.close();
             output.close();
             throw new IOException("Unsupported header format");
         }
-        // Write the body
-        // TODO: maybe this is all wrong
-        boolean foundPEOF = false;
-        Map<String, Integer> codeMappings = frequencyTree.getCodeMappings();
-        String currentPath = "";
-        while (!foundPEOF) {
-            int nextBits = input.readBits(1);
-            if (nextBits < 0) {
-                // TODO: do this properly
+        if (table != null) {
+            event.commit(HuffPhaseEvent.READ_HEADER, format, 0, 0, table);
+            event = HuffPhaseEvent.start();
+            bitCount = uncompressBody(input, output, table, model, words, tail, progressListener);
+            event.commit(HuffPhaseEvent.UNCOMPRESS_BODY, format, bitCount / BITS_PER_WORD, 0, table);
+        }
+        long expected = 0;
+        if (checked != null) {
+            // read in halves, since readBits returns -1 at the end
+            int high = input.readBits(CHECKSUM_BITS / 2);
+            int low = input.readBits(CHECKSUM_BITS / 2);
+            if (high == -1 || low == -1) {
                 input.close();
                 output.close();
-                throw new IOException("No PSEUDO_EOF value.");
-            }
-            currentPath += nextBits;
-            Integer value = codeMappings.get(currentPath);
-            if (value != null) {
-                if (value == PSEUDO_EOF) {
-                    foundPEOF = true;
-                } else {
-                    bitCount += BITS_PER_WORD;
-                    output.writeBits(BITS_PER_WORD, value);
-                    currentPath = "";
-                }
+                throw new IOException("Checksum missing, file is truncated.");
             }
+            expected = ((long) high << (CHECKSUM_BITS / 2)) | low;
         }
         input.close();
         output.close();
+        if (checked != null && checked.getValue() != expected) {
+            throw new IOException("Checksum does not match, file is damaged.");
+        }
+        if (untransformed != null) {
+            bitCount = (int) (untransformed.getBytesWritten() * BITS_PER_WORD);
+        }
+        return bitCount;
+    }
+
+    /**
+     * Check a compressed file by uncompressing it without writing the
+     * result anywhere. For a file with a checksum the data is checked
+     * against it, otherwise it is only checked that the file decodes.
+     *
+     * @param in the compressed data (not a BitInputStream)
+     * @return true if the file has a checksum, which matched
+     * @throws IOException if the file is damaged or can not be read
+     */
+    public boolean verify(InputStream in) throws IOException {
+        SegmentInputStream source = new SegmentInputStream(in);
+        BitInputStream input = new BitInputStream(source);
+        if (input.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+            source.finish();
+            throw new IOException("Required magic number not present.");
+        }
+        int format = input.readBits(BITS_PER_INT);
+        return uncompressSegments(input, format, source,
+                new SegmentOutputStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Appends data to a compressed file as a new segment, coded on its own
+     * with plan, without reading or recompressing what is already in the
+     * file. Each segment has its own header, so uncompress decodes the file
+     * to its old contents followed by the new data. The cost of an append
+     * depends only on the data appended. A plan in the Dictionary Format
+     * reuses the table of a dictionary rather than writing one, which
+     * suits appending many small pieces.
+     *
+     * @param plan  the plan for the data in in
+     * @param in    the data to append (not a BitInputStream)
+     * @param file  the compressed file, created if it does not exist
+     * @param force if this is true append the segment even if it is larger
+     *              than the data
+     * @return the number of bits written
+     * @throws IOException if file is not a compressed file, or an error
+     *                     occurs while reading in or writing the file
+     */
+    public int append(CompressionPlan plan, InputStream in, File file, boolean force)
+            throws IOException {
+        if (file.length() > 0) {
+            BitInputStream existing = new BitInputStream(new FileInputStream(file));
+            int magic = existing.readBits(BITS_PER_INT);
+            existing.close();
+            if (magic != MAGIC_NUMBER) {
+                in.close();
+                throw new IOException(file + " is not a compressed file.");
+            }
+        }
+        return compress(plan, in, new BufferedOutputStream(new FileOutputStream(file, true)),
+                force);
+    }
+
+    /**
+     * Decodes the body of a compressed file up to the PSEUDO_EOF and
+     * copies the bits after it that did not make up a whole word.
+     *
+     * @param input  the compressed file, positioned after the header
+     * @param output where the words are written
+     * @param table  the code table, the first table for the Context Format
+     * @param model  the context model, null except for the Context Format
+     * @param words  the number of bits per word
+     * @param tail   the number of bits after the PSEUDO_EOF
+     * @return the number of bits written
+     * @throws IOException if the body is truncated or invalid
+     */
+    private int uncompressBody(BitInputStream input, BitOutputStream output, CodeTable table,
+            ContextModel model, int words, int tail, IProgressListener listener)
+            throws IOException {
+        int bitCount = 0;
+        int pseudoEOF = 1 << words;
+        // bits of codes read, for progress
+        long codeBits = 0;
+        long count = 0;
+        int value = table.read(input);
+        while (value != pseudoEOF) {
+            if (value < 0) {
+                input.close();
+                output.close();
+                throw new IOException("No PSEUDO_EOF value.");
+            }
+            bitCount += words;
+            output.writeBits(words, value);
+            codeBits += table.getLength(value);
+            if (listener != null && ++count % IProgressListener.INTERVAL == 0) {
+                IProgressListener.report(listener, IProgressListener.UNCOMPRESS,
+                        codeBits / BITS_PER_WORD, -1);
+            }
+            if (model != null) {
+                table = model.getTable(value);
+            }
+            value = table.read(input);
+        }
+        if (tail > 0) {
+            int tailValue = input.readBits(tail);
+            if (tailValue < 0) {
+                input.close();
+                output.close();
+                throw new IOException("Missing bits after PSEUDO_EOF value.");
+            }
+            bitCount += tail;
+            output.writeBits(tail, tailValue);
+        }
         return bitCount;
     }
 
+    /**
+     * Set the listener told how each count, compress and uncompress done by
+     * this processor is going. Calls may come from several threads at once
+     * if the processor is shared.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setProgressListener(IProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Sets where the operations, bytes and latencies of compress and
+     * uncompress are recorded. They go to CodecMetrics.getDefault unless
+     * this is called.
+     *
+     * @param metrics the metrics to record to, or null to record nothing
+     */
+    public void setMetrics(CodecMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void setViewer(IHuffViewer viewer) {
         myViewer = viewer;
     }
 
     private void showString(String s) {
-        if (myViewer != null) {
-            myViewer.update(s);
+        IHuffViewer viewer = myViewer;
+        if (viewer != null) {
+            viewer.update(s);
+        }
+    }
+
+    private void showError(String s) {
+        IHuffViewer viewer = myViewer;
+        if (viewer != null) {
+            viewer.showError(s);
+        }
+    }
+
+    /*
+     * Keeps the compressed stream open when the BitInputStream of one
+     * segment is closed, so the next segment can be read from it.
+     */
+    private static class SegmentInputStream extends FilterInputStream {
+        SegmentInputStream(InputStream in) {
+            super(in);
+        }
+
+        public void close() {
+        }
+
+        // Closes the compressed stream once every segment is read.
+        void finish() throws IOException {
+            in.close();
+        }
+    }
+
+    /*
+     * Keeps the uncompressed stream open when the BitOutputStream of one
+     * segment is closed, so the next segment can be written to it.
+     */
+    private static class SegmentOutputStream extends FilterOutputStream {
+        // bytes written, for the result and metrics of uncompress
+        private long count;
+
+        SegmentOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+
+        // Closes the uncompressed stream once every segment is written.
+        void finish() throws IOException {
+            out.close();
+        }
+    }
+
+    /*
+     * Counts the bytes read through it, for the metrics of uncompress and
+     * the entry sizes of HuffArchiveWriter.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 }
@@ -0,0 +1,158 @@
+import java.util.Random;
+
+/**
+ * Deterministic test data for benchmarks. The same kind, size and seed
+ * always give the same bytes, so results from different runs and machines
+ * are measured on the same input.
+ */
+public class SyntheticCorpus {
+
+    /**
+     * Every byte value equally often, in a shuffled order.
+     */
+    public static final String UNIFORM = "uniform";
+
+    /**
+     * A few values very often and most rarely, like a geometric distribution.
+     */
+    public static final String SKEWED = "skewed";
+
+    /**
+     * Words from a small vocabulary used with Zipf frequencies, with spaces,
+     * punctuation and line breaks.
+     */
+    public static final String TEXT = "text";
+
+    /**
+     * Long runs of the same value.
+     */
+    public static final String RUNS = "runs";
+
+    /**
+     * Random bytes, which do not compress.
+     */
+    public static final String RANDOM = "random";
+
+    /**
+     * All kinds of corpus.
+     */
+    public static final String[] KINDS = {UNIFORM, SKEWED, TEXT, RUNS, RANDOM};
+
+    /**
+     * The seed used when none is given.
+     */
+    public static final long DEFAULT_SEED = 314;
+
+    private static final int VOCABULARY = 2000;
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * Makes a corpus with DEFAULT_SEED.
+     *
+     * @param kind one of KINDS
+     * @param size the number of bytes
+     * @return the corpus
+     */
+    public static byte[] generate(String kind, int size) {
+        return generate(kind, size, DEFAULT_SEED);
+    }
+
+    /**
+     * Makes a corpus.
+     *
+     * @param kind one of KINDS
+     * @param size the number of bytes
+     * @param seed picks one of the corpora of this kind and size
+     * @return the corpus
+     */
+    public static byte[] generate(String kind, int size, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        if (kind.equals(UNIFORM)) {
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) i;
+            }
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                byte temp = data[i];
+                data[i] = data[j];
+                data[j] = temp;
+            }
+        } else if (kind.equals(SKEWED)) {
+            for (int i = 0; i < size; i++) {
+                // each value is half as likely as the one before it
+                int value = Integer.numberOfTrailingZeros(random.nextInt() | (1 << 30));
+                data[i] = (byte) ('a' + value);
+            }
+        } else if (kind.equals(TEXT)) {
+            fillText(data, random);
+        } else if (kind.equals(RUNS)) {
+            int i = 0;
+            while (i < size) {
+                byte value = (byte) random.nextInt(16);
+                int run = 1 + random.nextInt(200);
+                for (int end = Math.min(size, i + run); i < end; i++) {
+                    data[i] = value;
+                }
+            }
+        } else if (kind.equals(RANDOM)) {
+            random.nextBytes(data);
+        } else {
+            throw new IllegalArgumentException("unknown corpus " + kind);
+        }
+        return data;
+    }
+
+    // Fills data with words whose frequency falls off as 1 / rank.
+    private static void fillText(byte[] data, Random random) {
+        String[] words = new String[VOCABULARY];
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int w = 0; w < VOCABULARY; w++) {
+            StringBuilder word = new StringBuilder();
+            // common words are short
+            int length = 1 + Math.min(11, (int) Math.log(w + 2) + random.nextInt(4));
+            for (int c = 0; c < length; c++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[w] = word.toString();
+            total += 1.0 / (w + 1);
+            cumulative[w] = total;
+        }
+        int pos = 0;
+        int lineLength = 0;
+        while (pos < data.length) {
+            double pick = random.nextDouble() * total;
+            int low = 0;
+            int high = VOCABULARY - 1;
+            while (low < high) {
+                int mid = (low + high) / 2;
+                if (cumulative[mid] < pick) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            String word = words[low];
+            for (int c = 0; c < word.length() && pos < data.length; c++) {
+                data[pos++] = (byte) word.charAt(c);
+            }
+            lineLength += word.length() + 1;
+            if (pos < data.length) {
+                int p = random.nextInt(20);
+                if (lineLength > 70) {
+                    data[pos++] = '\n';
+                    lineLength = 0;
+                } else if (p == 0) {
+                    data[pos++] = '.';
+                } else if (p == 1) {
+                    data[pos++] = ',';
+                } else {
+                    data[pos++] = ' ';
+                }
+            }
+        }
+    }
+}
@@ -100,8 +100,14 @@ public class TextHuffViewer implements IHuffViewer {
             System.out.print("Current Header format for compressing: ");
             if (this.myHeaderFormat == IHuffConstants.STORE_COUNTS) {
                 System.out.println("Standard COUNT Format");
-            } else {
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_TREE) {
                 System.out.println("Standard TREE Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_SPARSE) {
+                System.out.println("SPARSE Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_CONTEXT) {
+                System.out.println("CONTEXT Format");
+            } else {
+                System.out.println("LZ77 Format");
             }
             System.out.println("Current force compression status: " + this.myForce);
             System.out.println();
@@ -143,10 +149,18 @@ public class TextHuffViewer implements IHuffViewer {
             } else if (firstCharValue == MenuChoices.FLIP_COMPRESSION_STATUS.ordinal()) {
                 myForce = !myForce;
             } else {
-                // must be a 3, flip the header format
-                myHeaderFormat =
-                        (myHeaderFormat == IHuffConstants.STORE_COUNTS) ? IHuffConstants.STORE_TREE
-                                : IHuffConstants.STORE_COUNTS;
+                // must be a 3, move on to the next header format
+                if (myHeaderFormat == IHuffConstants.STORE_COUNTS) {
+                    myHeaderFormat = IHuffConstants.STORE_TREE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_TREE) {
+                    myHeaderFormat = IHuffConstants.STORE_SPARSE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_SPARSE) {
+                    myHeaderFormat = IHuffConstants.STORE_CONTEXT;
+                } else if (myHeaderFormat == IHuffConstants.STORE_CONTEXT) {
+                    myHeaderFormat = IHuffConstants.STORE_LZ77;
+                } else {
+                    myHeaderFormat = IHuffConstants.STORE_COUNTS;
+                }
 
             }
         }
@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads blocks from another stream and returns them transformed by a
+ * TransformPipeline, each block preceded by its length in 4 bytes.
+ */
+public class TransformInputStream extends InputStream {
+    private static final int LENGTH_BYTES = 4;
+
+    private InputStream input;
+    private TransformPipeline pipeline;
+    private byte[] block;
+    private byte[] current;
+    private int position;
+    private long bytesRead;
+
+    /**
+     * Create a stream that transforms the data from in.
+     * @param in the original data
+     * @param pipeline the transforms to apply
+     */
+    public TransformInputStream(InputStream in, TransformPipeline pipeline) {
+        input = in;
+        this.pipeline = pipeline;
+        block = new byte[pipeline.getBlockSize()];
+        current = new byte[0];
+        position = LENGTH_BYTES;
+    }
+
+    /**
+     * Returns the next byte of the transformed data.
+     * @return the next byte, or -1 at the end of the data
+     */
+    public int read() throws IOException {
+        if (position == current.length + LENGTH_BYTES && !nextBlock()) {
+            return -1;
+        }
+        int result;
+        if (position < LENGTH_BYTES) {
+            result = (current.length >>> (8 * (LENGTH_BYTES - 1 - position))) & 0xff;
+        } else {
+            result = current[position - LENGTH_BYTES] & 0xff;
+        }
+        position++;
+        return result;
+    }
+
+    // Read and transform the next block, returns false at the end of input.
+    private boolean nextBlock() throws IOException {
+        int length = input.readNBytes(block, 0, block.length);
+        if (length == 0) {
+            return false;
+        }
+        bytesRead += length;
+        current = pipeline.forward(block, length);
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Get the number of bytes read so far from the original data.
+     * @return the number of untransformed bytes
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Closes the underlying stream.
+     */
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Takes the blocks written by a TransformInputStream and writes the
+ * original data to another stream, undoing the transforms one block
+ * at a time.
+ */
+public class TransformOutputStream extends OutputStream {
+    private static final int LENGTH_BYTES = 4;
+
+    private OutputStream output;
+    private TransformPipeline pipeline;
+    private byte[] block;
+    private int length;
+    private int lengthRead;
+    private int position;
+    private long bytesWritten;
+
+    /**
+     * Create a stream that writes the original data to out.
+     * @param out where the original data goes
+     * @param pipeline the transforms to undo
+     */
+    public TransformOutputStream(OutputStream out, TransformPipeline pipeline) {
+        output = out;
+        this.pipeline = pipeline;
+        block = new byte[0];
+    }
+
+    /**
+     * Takes the next byte of transformed data.
+     * @param b the byte, in the low 8 bits
+     * @throws IOException if a block is invalid or out can not be written
+     */
+    public void write(int b) throws IOException {
+        if (lengthRead < LENGTH_BYTES) {
+            length = (length << 8) | (b & 0xff);
+            lengthRead++;
+            if (lengthRead == LENGTH_BYTES) {
+                if (length < 0 || length > pipeline.getMaxTransformedLength()) {
+                    throw new IOException("Invalid transformed block length.");
+                }
+                if (block.length < length) {
+                    block = new byte[length];
+                }
+                position = 0;
+            }
+        } else {
+            block[position++] = (byte) b;
+        }
+        if (lengthRead == LENGTH_BYTES && position == length) {
+            byte[] original;
+            try {
+                original = pipeline.inverse(block, length);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid transformed block. " + e.getMessage());
+            }
+            output.write(original);
+            bytesWritten += original.length;
+            length = lengthRead = 0;
+        }
+    }
+
+    /**
+     * Get the number of bytes of original data written so far.
+     * @return the number of bytes written to the underlying stream
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Flushes the underlying stream.
+     */
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    /**
+     * Closes the underlying stream.
+     * @throws IOException if the last block was not complete
+     */
+    public void close() throws IOException {
+        output.close();
+        if (lengthRead != 0) {
+            throw new IOException("Transformed data ends in the middle of a block.");
+        }
+    }
+}
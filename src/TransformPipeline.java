@@ -0,0 +1,169 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A chain of IByteTransforms applied to data block by block before it is
+ * Huffman coded, and undone in reverse order after it is uncompressed.
+ * The stages are picked with a bit mask so each one can be turned on
+ * (and measured) on its own. When several are on they run in the order
+ * BWT, MTF, ZRLE.
+ * <p>
+ * The transformed stream is a sequence of blocks, each one a 4 byte length
+ * followed by that many bytes of transformed data.
+ */
+public class TransformPipeline {
+
+    /**
+     * Stage for the Burrows-Wheeler transform.
+     */
+    public static final int BWT = 1;
+
+    /**
+     * Stage for the move-to-front transform.
+     */
+    public static final int MTF = 2;
+
+    /**
+     * Stage for zero run-length coding.
+     */
+    public static final int ZRLE = 4;
+
+    /**
+     * All stages, the usual choice.
+     */
+    public static final int ALL_STAGES = BWT | MTF | ZRLE;
+
+    /**
+     * Number of bytes transformed at a time unless another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 19;
+
+    /**
+     * Largest block size. The block size is not recorded in the compressed
+     * file, so uncompress takes any block up to this size once transformed.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    private int stages;
+    private int blockSize;
+    private IByteTransform[] transforms;
+
+    /**
+     * Create a pipeline with the given stages and the default block size.
+     * @param stages the stages to use, BWT, MTF and ZRLE or'ed together
+     */
+    public TransformPipeline(int stages) {
+        this(stages, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a pipeline with the given stages.
+     * @param stages the stages to use, BWT, MTF and ZRLE or'ed together
+     * @param blockSize the number of bytes transformed at a time, at most
+     * MAX_BLOCK_SIZE
+     */
+    public TransformPipeline(int stages, int blockSize) {
+        if ((stages & ~ALL_STAGES) != 0) {
+            throw new IllegalArgumentException("unknown transform stages " + stages);
+        }
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be between 1 and "
+                    + MAX_BLOCK_SIZE);
+        }
+        this.stages = stages;
+        this.blockSize = blockSize;
+        transforms = new IByteTransform[Integer.bitCount(stages)];
+        int i = 0;
+        if ((stages & BWT) != 0) {
+            transforms[i++] = new BurrowsWheelerTransform();
+        }
+        if ((stages & MTF) != 0) {
+            transforms[i++] = new MoveToFrontTransform();
+        }
+        if ((stages & ZRLE) != 0) {
+            transforms[i++] = new ZeroRunLengthTransform();
+        }
+    }
+
+    /**
+     * Apply every stage to a block.
+     * @param data the block
+     * @param length the number of bytes in the block
+     * @return the transformed block
+     */
+    public byte[] forward(byte[] data, int length) {
+        for (IByteTransform transform : transforms) {
+            data = transform.forward(data, length);
+            length = data.length;
+        }
+        return data.length == length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Undo every stage on a transformed block.
+     * @param data the transformed block
+     * @param length the number of bytes in the block
+     * @return the original block
+     */
+    public byte[] inverse(byte[] data, int length) {
+        for (int i = transforms.length - 1; i >= 0; i--) {
+            data = transforms[i].inverse(data, length);
+            length = data.length;
+        }
+        return data.length == length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Get a stream of the transformed blocks of in.
+     * @param in the original data
+     * @return a stream that reads the transformed data
+     */
+    public TransformInputStream forward(InputStream in) {
+        return new TransformInputStream(in, this);
+    }
+
+    /**
+     * Get a stream that takes transformed blocks and writes the original
+     * data to out.
+     * @param out where the original data is written
+     * @return a stream to write the transformed data to
+     */
+    public TransformOutputStream inverse(OutputStream out) {
+        return new TransformOutputStream(out, this);
+    }
+
+    /**
+     * Get the stages of this pipeline.
+     * @return BWT, MTF and ZRLE or'ed together
+     */
+    public int getStages() {
+        return stages;
+    }
+
+    /**
+     * Get the number of bytes transformed at a time.
+     * @return the block size
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the most bytes a block of up to MAX_BLOCK_SIZE bytes can take once
+     * transformed by the stages of this pipeline, whatever block size it was
+     * transformed with.
+     * @return the largest transformed block length
+     */
+    public int getMaxTransformedLength() {
+        int length = MAX_BLOCK_SIZE;
+        if ((stages & BWT) != 0) {
+            length += BurrowsWheelerTransform.INDEX_BYTES;
+        }
+        if ((stages & ZRLE) != 0) {
+            // a run of two zeros takes three bytes, nothing takes more
+            length += (length + 1) / 2;
+        }
+        return length;
+    }
+}
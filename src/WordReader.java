@@ -0,0 +1,79 @@
+import java.io.IOException;
+
+/**
+ * Reads fixed size words of 1 to 16 bits from a BitInputStream.
+ * BitInputStream.readBits returns -1 and drops any bits that are left
+ * when fewer than the requested number remain, so words are put together
+ * here from whole bytes instead. Once read returns -1 the bits that did not
+ * make up a whole word are available as the tail.
+ */
+public class WordReader {
+    private static final int BITS_PER_BYTE = 8;
+
+    private BitInputStream input;
+    private int wordSize;
+    private int buffer;
+    private int bitCount;
+    private int tailBits;
+    private int tailValue;
+
+    /**
+     * Creates a WordReader that reads words of wordSize bits from input.
+     *
+     * @param input    the stream to read from
+     * @param wordSize the number of bits per word, 1 to MAX_BITS_PER_WORD
+     */
+    public WordReader(BitInputStream input, int wordSize) {
+        if (wordSize < 1 || wordSize > IHuffConstants.MAX_BITS_PER_WORD) {
+            throw new IllegalArgumentException("wordSize must be between 1 and "
+                    + IHuffConstants.MAX_BITS_PER_WORD);
+        }
+        this.input = input;
+        this.wordSize = wordSize;
+    }
+
+    /**
+     * Reads the next word.
+     *
+     * @return the word read, or -1 if there are not enough bits left for a
+     *         whole word
+     * @throws IOException if an error occurs while reading
+     */
+    public int read() throws IOException {
+        while (bitCount < wordSize) {
+            int nextByte = input.readBits(BITS_PER_BYTE);
+            if (nextByte < 0) {
+                tailBits = bitCount;
+                tailValue = buffer;
+                buffer = bitCount = 0;
+                return -1;
+            }
+            buffer = (buffer << BITS_PER_BYTE) | nextByte;
+            bitCount += BITS_PER_BYTE;
+        }
+        bitCount -= wordSize;
+        int word = buffer >>> bitCount;
+        buffer &= (1 << bitCount) - 1;
+        return word;
+    }
+
+    /**
+     * Get the number of bits left over at the end of the stream.
+     * Only valid after read has returned -1.
+     *
+     * @return the number of bits in the tail, less than the word size
+     */
+    public int getTailBits() {
+        return tailBits;
+    }
+
+    /**
+     * Get the bits left over at the end of the stream.
+     * Only valid after read has returned -1.
+     *
+     * @return the tail in the rightmost getTailBits() bits
+     */
+    public int getTailValue() {
+        return tailValue;
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Shortens runs of zero bytes, which move-to-front produces a lot of.
+ * A single zero is left as it is. A run of 2 to MAX_RUN zeros is written as
+ * two zeros followed by a byte holding the length of the run minus 2.
+ * Longer runs are split up.
+ */
+public class ZeroRunLengthTransform implements IByteTransform {
+    private static final int MAX_RUN = 257;
+
+    public byte[] forward(byte[] data, int length) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(length);
+        int i = 0;
+        while (i < length) {
+            if (data[i] != 0) {
+                result.write(data[i]);
+                i++;
+            } else {
+                int run = 1;
+                while (i + run < length && data[i + run] == 0 && run < MAX_RUN) {
+                    run++;
+                }
+                result.write(0);
+                if (run > 1) {
+                    result.write(0);
+                    result.write(run - 2);
+                }
+                i += run;
+            }
+        }
+        return result.toByteArray();
+    }
+
+    public byte[] inverse(byte[] data, int length) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(2 * length);
+        int i = 0;
+        while (i < length) {
+            if (data[i] == 0 && i + 1 < length && data[i + 1] == 0) {
+                if (i + 2 >= length) {
+                    throw new IllegalArgumentException("zero run has no length");
+                }
+                int run = (data[i + 2] & 0xff) + 2;
+                for (int j = 0; j < run; j++) {
+                    result.write(0);
+                }
+                i += 3;
+            } else {
+                result.write(data[i]);
+                i++;
+            }
+        }
+        return result.toByteArray();
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compresses and uncompresses empty, tiny, skewed and random inputs with
+ * every header format, every word size of the Sparse Format, each set of
+ * transforms, checksums, pipelined mode and append, and prints each input
+ * that does not come back the same. Then it round trips an input of more
+ * than 256MB with 12 bits per word, which takes much longer; give
+ * -quick to skip it.
+ * <p>
+ * Usage: java roundTripTester [-quick]
+ */
+public class roundTripTester implements IHuffConstants {
+
+    private static final int[] FORMATS = {STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_CONTEXT,
+            STORE_LZ77, STORE_DICTIONARY};
+    private static final String[] INPUTS = {"empty", "tiny", "skewed", "random"};
+    private static final long LARGE_SIZE = 300L << 20;
+
+    private static int tests;
+    private static int failures;
+
+    public static void main(String[] args) throws IOException {
+        HuffDictionary dictionary = HuffDictionary.train(List.of(input("skewed", 1)));
+        HuffDictionaryRegistry.getDefault().register(dictionary);
+        for (int format : FORMATS) {
+            for (String name : INPUTS) {
+                for (int stages = 0; stages <= TransformPipeline.ALL_STAGES; stages++) {
+                    for (boolean checksummed : new boolean[] {false, true}) {
+                        SimpleHuffProcessor huffer = processor(format, dictionary);
+                        huffer.setChecksum(checksummed);
+                        if (stages != 0) {
+                            huffer.setTransform(new TransformPipeline(stages, 1000));
+                        }
+                        check(Integer.toHexString(format) + " " + name + " stages " + stages
+                                + (checksummed ? " checksum" : ""), huffer, format,
+                                input(name, stages), checksummed);
+                    }
+                }
+                SimpleHuffProcessor huffer = processor(format, dictionary);
+                huffer.setPipelined(true);
+                check(Integer.toHexString(format) + " " + name + " pipelined", huffer, format,
+                        input(name, 0), false);
+                checkAppend(Integer.toHexString(format) + " " + name + " append",
+                        processor(format, dictionary), format, name);
+            }
+        }
+        for (int bits = 1; bits <= MAX_BITS_PER_WORD; bits++) {
+            for (String name : INPUTS) {
+                SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+                huffer.setWordSize(bits);
+                check("word size " + bits + " " + name, huffer, STORE_SPARSE, input(name, bits),
+                        false);
+            }
+        }
+        if (args.length == 0 || !args[0].equals("-quick")) {
+            checkLarge(12);
+        }
+        System.out.println(tests + " round trips, " + failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // A processor set up to compress in format.
+    private static SimpleHuffProcessor processor(int format, HuffDictionary dictionary) {
+        SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+        if (format == STORE_DICTIONARY) {
+            huffer.setDictionary(dictionary);
+        }
+        return huffer;
+    }
+
+    // Makes one of the INPUTS, seeded so each call with the same seed
+    // returns the same bytes.
+    private static byte[] input(String name, long seed) {
+        Random random = new Random(seed);
+        byte[] data;
+        if (name.equals("empty")) {
+            data = new byte[0];
+        } else if (name.equals("tiny")) {
+            data = new byte[] {(byte) random.nextInt(256), (byte) random.nextInt(256), 'a'};
+        } else {
+            data = new byte[20000 + random.nextInt(1000)];
+            boolean skewed = name.equals("skewed");
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (skewed ? skewedByte(random) : random.nextInt(256));
+            }
+        }
+        return data;
+    }
+
+    // A byte from a few letters, most of them 'e'.
+    private static int skewedByte(Random random) {
+        return random.nextInt(4) != 0 ? 'e' : "etaoin shrdlu".charAt(random.nextInt(13));
+    }
+
+    // Compresses data and checks it uncompresses the same, and verifies if
+    // it has a checksum. The Count and Tree Formats can not code empty
+    // data, and must say so.
+    private static void check(String name, SimpleHuffProcessor huffer, int format, byte[] data,
+            boolean checksummed) {
+        tests++;
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try {
+                CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data), format);
+                huffer.compress(plan, new ByteArrayInputStream(data), compressed, true);
+            } catch (IllegalArgumentException e) {
+                if (data.length == 0 && (format == STORE_COUNTS || format == STORE_TREE)) {
+                    return;
+                }
+                throw e;
+            }
+            byte[] file = compressed.toByteArray();
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            new SimpleHuffProcessor().uncompress(new ByteArrayInputStream(file), result);
+            if (!Arrays.equals(data, result.toByteArray())) {
+                fail(name, "uncompressed data differs");
+            } else if (new SimpleHuffProcessor().verify(new ByteArrayInputStream(file))
+                    != checksummed) {
+                fail(name, "verify does not match the checksum setting");
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(name, e.toString());
+        }
+    }
+
+    // Appends three segments to a file and checks it uncompresses to all of
+    // them in order.
+    private static void checkAppend(String name, SimpleHuffProcessor huffer, int format,
+            String input) {
+        tests++;
+        File file = null;
+        try {
+            file = File.createTempFile("roundTrip", ".hf");
+            file.delete();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int segment = 0; segment < 3; segment++) {
+                byte[] data = input(segment == 1 ? "tiny" : input, segment);
+                if (data.length == 0 && (format == STORE_COUNTS || format == STORE_TREE)) {
+                    continue;
+                }
+                huffer.setChecksum(segment != 1);
+                CompressionPlan plan = huffer.plan(new ByteArrayInputStream(data), format);
+                huffer.append(plan, new ByteArrayInputStream(data), file, true);
+                expected.write(data);
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            new SimpleHuffProcessor().uncompress(new FileInputStream(file), result);
+            if (!Arrays.equals(expected.toByteArray(), result.toByteArray())) {
+                fail(name, "uncompressed data differs");
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(name, e.toString());
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    // Round trips LARGE_SIZE skewed bytes through a file with a word size
+    // that does not divide the number of bits, so the tail is not empty.
+    // The data is made as it is read, so it is never all in memory.
+    private static void checkLarge(int bits) throws IOException {
+        tests++;
+        String name = "word size " + bits + ", " + (LARGE_SIZE >> 20) + "MB";
+        File file = File.createTempFile("roundTrip", ".hf");
+        try {
+            SimpleHuffProcessor huffer = new SimpleHuffProcessor();
+            huffer.setWordSize(bits);
+            CompressionPlan plan = huffer.plan(new SkewedInputStream(LARGE_SIZE), STORE_SPARSE);
+            huffer.compress(plan, new SkewedInputStream(LARGE_SIZE),
+                    new BufferedOutputStream(new FileOutputStream(file)), true);
+            CompareOutputStream result = new CompareOutputStream(new SkewedInputStream(LARGE_SIZE));
+            new SimpleHuffProcessor().uncompress(
+                    new BufferedInputStream(new FileInputStream(file)), result);
+            if (result.differences > 0 || result.count != LARGE_SIZE) {
+                fail(name, result.differences + " bytes differ, " + result.count + " written");
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(name, e.toString());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void fail(String name, String message) {
+        failures++;
+        System.out.println("FAILED " + name + ": " + message);
+    }
+
+    /*
+     * The same skewed bytes every time, as many as asked for.
+     */
+    private static class SkewedInputStream extends InputStream {
+        private final Random random = new Random(LARGE_SIZE);
+        private long left;
+
+        SkewedInputStream(long size) {
+            left = size;
+        }
+
+        public int read() {
+            if (left == 0) {
+                return -1;
+            }
+            left--;
+            return skewedByte(random);
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (left == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, left);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) skewedByte(random);
+            }
+            left -= n;
+            return n;
+        }
+    }
+
+    /*
+     * Counts the bytes written to it that differ from those of a stream.
+     */
+    private static class CompareOutputStream extends OutputStream {
+        private final InputStream expected;
+        private long count;
+        private long differences;
+
+        CompareOutputStream(InputStream expected) {
+            this.expected = expected;
+        }
+
+        public void write(int b) throws IOException {
+            if (expected.read() != (b & 0xff)) {
+                differences++;
+            }
+            count++;
+        }
+    }
+}